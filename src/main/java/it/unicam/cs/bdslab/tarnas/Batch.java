@@ -0,0 +1,299 @@
+package it.unicam.cs.bdslab.tarnas;
+
+import it.unicam.cs.bdslab.tarnas.controller.ContainerStartup;
+import it.unicam.cs.bdslab.tarnas.controller.DockerController;
+import it.unicam.cs.bdslab.tarnas.controller.JobHandle;
+import it.unicam.cs.bdslab.tarnas.controller.LocalToolExecutor;
+import it.unicam.cs.bdslab.tarnas.controller.PreprocessingPlan;
+import it.unicam.cs.bdslab.tarnas.controller.RunReport;
+import it.unicam.cs.bdslab.tarnas.controller.ToolJob;
+import it.unicam.cs.bdslab.tarnas.controller.ToolScheduler;
+import it.unicam.cs.bdslab.tarnas.view.HomeController;
+import it.unicam.cs.bdslab.tarnas.view.utils.TOOL;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Logger;
+
+/**
+ * TARNAS headless batch mode, for machines without a display.
+ * <p>
+ * Usage: {@code java -cp tarnas.jar it.unicam.cs.bdslab.tarnas.Batch --shared <folder> --tools <TOOL,...|all>
+ * [--csv <file>] [--threads <n>] [--parallelism <n>] [--summary <file>] [--keep-containers] [--local-tools <dir>]
+ * [--no-resume] [--retry-failed] [--stream] [--dry-run]}
+ * <p>
+ * Preprocesses the CSV and runs the tools in the same containers as the GUI, then prints a JSON
+ * summary as the last line of the standard output (and to the --summary file, if given). Tool and
+ * Docker output goes to the standard error. With --local-tools the tools run as host processes from the
+ * given directory (see {@link LocalToolExecutor}) and no container is started. No JavaFX class is
+ * loaded: the container names below are compile-time constants of {@link HomeController}, inlined
+ * by the compiler.
+ * <p>
+ * Jobs already done on the same input by a previous run, according to the run journal of the
+ * shared folder, are skipped unless --no-resume is given. With --retry-failed the CSV is not
+ * preprocessed again and only the jobs whose last run failed are run. With --stream the tools start
+ * on each chain as soon as the preprocessing writes it, instead of after the whole CSV.
+ * <p>
+ * With --dry-run nothing is run: the preprocessing plan of the CSV (rows coalesced by PDB ID, see
+ * {@link PreprocessingPlan}) is printed to the standard output instead of the summary, and --tools
+ * may be left out.
+ * <p>
+ * Exit status: 0 if every job succeeded, 1 if some job failed, 2 on bad arguments, 3 on errors.
+ */
+public class Batch {
+
+    public static final Logger logger = Logger.getLogger("it.unicam.cs.bdslab.tarnas.batch");
+
+    private static final String USAGE = "usage: Batch --shared <folder> --tools <TOOL,...|all> [--csv <file>] "
+            + "[--threads <n>] [--parallelism <n>] [--summary <file>] [--keep-containers] [--local-tools <dir>] "
+            + "[--no-resume] [--retry-failed] [--stream] [--dry-run]";
+
+    public static void main(String[] args) {
+        System.exit(run(args));
+    }
+
+    static int run(String[] args) {
+        // keep the standard output for the summary only
+        PrintStream stdout = System.out;
+        System.setOut(System.err);
+
+        Map<String, String> options;
+        Set<TOOL> tools;
+        Path shared;
+        try {
+            options = parseOptions(args);
+            shared = Paths.get(require(options, "--shared")).toAbsolutePath().normalize();
+            tools = options.containsKey("--dry-run") && !options.containsKey("--tools")
+                    ? EnumSet.noneOf(TOOL.class) : parseTools(require(options, "--tools"));
+            if (!Files.isDirectory(shared))
+                throw new IllegalArgumentException("Not a directory: " + shared);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            return 2;
+        }
+
+        var dockerController = DockerController.getInstance();
+        if (options.containsKey("--dry-run"))
+            return dryRun(dockerController, shared, options, stdout);
+        var handle = new AtomicReference<JobHandle>();
+        // stops the tools (and their process groups) before the JVM exits
+        var shutdown = new Thread(() -> {
+            var running = handle.get();
+            if (running == null) return;
+            running.cancel();
+            try {
+                running.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        Runtime.getRuntime().addShutdownHook(shutdown);
+
+        var startup = new ContainerStartup(dockerController,
+                new ContainerStartup.ContainerSpec(new File(HomeController.dockerfileAllToolsPath),
+                        HomeController.dockerAllToolsImage, HomeController.dockerAllToolsImageTag,
+                        HomeController.dockerAllToolsContainer),
+                new ContainerStartup.ContainerSpec(new File(HomeController.dockerfileX3DNAPath),
+                        HomeController.dockerX3DNAImage, HomeController.dockerX3DNAImageTag,
+                        HomeController.dockerX3DNAContainer));
+        RunReport report = null;
+        String error = null;
+        try {
+            if (options.containsKey("--csv"))
+                dockerController.setCsvFile(Paths.get(options.get("--csv")).toAbsolutePath());
+            if (options.containsKey("--threads"))
+                dockerController.setPreprocessingParallelism(Integer.parseInt(options.get("--threads")));
+            if (options.containsKey("--parallelism"))
+                for (TOOL tool : tools)
+                    dockerController.getToolScheduler().setParallelism(tool, Integer.parseInt(options.get("--parallelism")));
+            if (options.containsKey("--local-tools"))
+                dockerController.setToolExecutor(new LocalToolExecutor(Paths.get(options.get("--local-tools"))));
+            dockerController.setPlannedTools(tools);
+            dockerController.setResume(!options.containsKey("--no-resume"));
+            dockerController.setRetryFailedOnly(options.containsKey("--retry-failed"));
+
+            startup.setListener((step, progress, message) -> logger.info(step + ": " + message));
+            startup.setSharedFolder(shared);
+            // containers start on demand; the ones of the tools warm up while preprocessing
+            dockerController.setContainerStartup(startup);
+            if (!options.containsKey("--local-tools"))
+                startup.prestart(tools);
+            DockerController.ProgressListener preprocessing = (progress, message) -> logger.info(ContainerStartup.PREPROCESSING + ": " + message);
+            ToolScheduler.JobListener jobs = (job, progress) ->
+                    logger.info(progress.getSucceeded() + progress.getFailed() + "/" + progress.getTotal() + " " + job);
+            if (options.containsKey("--stream") && !options.containsKey("--retry-failed")) {
+                dockerController.preprocessAndSubmitTools(tools, preprocessing, jobs, handle::set);
+            } else {
+                if (!options.containsKey("--retry-failed"))
+                    dockerController.preprocessCsv(preprocessing);
+                handle.set(dockerController.submitTools(tools, jobs));
+            }
+            report = handle.get().await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            error = "interrupted";
+        } catch (IOException | RuntimeException e) {
+            logger.severe("Batch run failed: " + e);
+            error = String.valueOf(e.getMessage());
+        } finally {
+            if (!options.containsKey("--keep-containers") && !dockerController.isPersistentContainers()) {
+                if (startup.isStarted(ContainerStartup.TOOLS))
+                    dockerController.stopContainerByNameOrId(HomeController.dockerAllToolsContainer, 10);
+                if (startup.isStarted(ContainerStartup.X3DNA))
+                    dockerController.stopContainerByNameOrId(HomeController.dockerX3DNAContainer, 10);
+            }
+            try {
+                Runtime.getRuntime().removeShutdownHook(shutdown);
+            } catch (IllegalStateException ignored) {
+                // already shutting down
+            }
+        }
+
+        var summary = toJson(shared, report, dockerController.getPreprocessingErrors(), error);
+        stdout.println(summary);
+        stdout.flush();
+        if (options.containsKey("--summary")) {
+            try {
+                Files.writeString(Paths.get(options.get("--summary")), summary + "\n", StandardCharsets.UTF_8);
+            } catch (IOException e) {
+                logger.severe("Could not write summary: " + e.getMessage());
+            }
+        }
+        if (error != null) return 3;
+        return report.isSuccessful() ? 0 : 1;
+    }
+
+    /**
+     * Prints the preprocessing plan of the CSV.
+     */
+    private static int dryRun(DockerController dockerController, Path shared, Map<String, String> options, PrintStream stdout) {
+        dockerController.setSharedFolder(shared);
+        if (options.containsKey("--csv"))
+            dockerController.setCsvFile(Paths.get(options.get("--csv")).toAbsolutePath());
+        try {
+            PreprocessingPlan plan = dockerController.planCsv();
+            if (plan == null) {
+                System.err.println("No CSV file found in " + shared);
+                return 3;
+            }
+            stdout.print(plan.report());
+            stdout.flush();
+            return 0;
+        } catch (IOException | RuntimeException e) {
+            logger.severe("Dry run failed: " + e);
+            return 3;
+        }
+    }
+
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            var name = args[i];
+            switch (name) {
+                case "--keep-containers", "--no-resume", "--retry-failed", "--stream", "--dry-run" -> options.put(name, "true");
+                case "--shared", "--csv", "--tools", "--threads", "--parallelism", "--summary", "--local-tools" -> {
+                    if (i + 1 >= args.length) throw new IllegalArgumentException("Missing value for " + name);
+                    options.put(name, args[++i]);
+                }
+                default -> throw new IllegalArgumentException("Unknown option: " + name);
+            }
+        }
+        for (var numeric : List.of("--threads", "--parallelism")) {
+            if (!options.containsKey(numeric)) continue;
+            try {
+                if (Integer.parseInt(options.get(numeric)) < 1) throw new NumberFormatException();
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException(numeric + " must be a positive integer");
+            }
+        }
+        return options;
+    }
+
+    private static String require(Map<String, String> options, String name) {
+        var value = options.get(name);
+        if (value == null) throw new IllegalArgumentException("Missing option " + name);
+        return value;
+    }
+
+    private static Set<TOOL> parseTools(String list) {
+        if (list.equalsIgnoreCase("all")) return EnumSet.allOf(TOOL.class);
+        Set<TOOL> tools = EnumSet.noneOf(TOOL.class);
+        for (var name : list.split(",")) {
+            if (name.isBlank()) continue;
+            try {
+                tools.add(TOOL.valueOf(name.trim().toUpperCase(Locale.ROOT)));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown tool: " + name.trim() + " (one of " + Arrays.toString(TOOL.values()) + ")");
+            }
+        }
+        if (tools.isEmpty()) throw new IllegalArgumentException("No tool selected");
+        return tools;
+    }
+
+    /**
+     * Single-line JSON summary, e.g.
+     * {"status":"failed","sharedFolder":"...","tools":{"RNAVIEW":{"total":3,"succeeded":2,"failed":1}},
+     * "failedJobs":[{"tool":"RNAVIEW","file":"..."}],"preprocessingErrors":[],"cancelled":false}
+     */
+    static String toJson(Path shared, RunReport report, List<String> preprocessingErrors, String error) {
+        var sb = new StringBuilder("{");
+        String status = error != null ? "error" : report.isSuccessful() ? "ok" : report.isCancelled() ? "cancelled" : "failed";
+        sb.append("\"status\":").append(quote(status));
+        sb.append(",\"sharedFolder\":").append(quote(shared.toString()));
+        if (error != null) sb.append(",\"error\":").append(quote(error));
+        sb.append(",\"tools\":{");
+        if (report != null) {
+            var sep = "";
+            for (TOOL tool : report.getTools()) {
+                sb.append(sep).append(quote(tool.getName())).append(":{")
+                        .append("\"total\":").append(report.getTotal(tool))
+                        .append(",\"succeeded\":").append(report.getSucceeded(tool))
+                        .append(",\"failed\":").append(report.getFailed(tool)).append('}');
+                sep = ",";
+            }
+        }
+        sb.append("},\"failedJobs\":[");
+        if (report != null) {
+            var sep = "";
+            for (ToolJob job : report.getFailedJobs()) {
+                sb.append(sep).append("{\"tool\":").append(quote(job.tool().getName()))
+                        .append(",\"file\":").append(quote(job.input().getFileName().toString())).append('}');
+                sep = ",";
+            }
+        }
+        sb.append("],\"preprocessingErrors\":[");
+        var sep = "";
+        for (var e : preprocessingErrors) {
+            sb.append(sep).append(quote(e));
+            sep = ",";
+        }
+        sb.append("],\"cancelled\":").append(report != null && report.isCancelled()).append('}');
+        return sb.toString();
+    }
+
+    private static String quote(String value) {
+        var sb = new StringBuilder(value.length() + 2).append('"');
+        for (char c : value.toCharArray()) {
+            switch (c) {
+                case '"' -> sb.append("\\\"");
+                case '\\' -> sb.append("\\\\");
+                case '\n' -> sb.append("\\n");
+                case '\r' -> sb.append("\\r");
+                case '\t' -> sb.append("\\t");
+                default -> {
+                    if (c < 0x20) sb.append(String.format("\\u%04x", (int) c));
+                    else sb.append(c);
+                }
+            }
+        }
+        return sb.append('"').toString();
+    }
+}
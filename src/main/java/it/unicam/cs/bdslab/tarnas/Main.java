@@ -76,7 +76,10 @@ public class Main extends Application {
      * stopBothContainersWithOneAlert("x3dna-container", "all-tools-container", 10);
      */
     public void stopBothContainersWithOneAlert(String name1, String name2, Integer timeoutSeconds) {
-        if (DockerController.getInstance().isContainerRunning(HomeController.dockerAllToolsContainer) && DockerController.getInstance().isContainerRunning(HomeController.dockerX3DNAContainer)) {
+        // containers are started on demand, so either of them may be missing
+        boolean running1 = DockerController.getInstance().isContainerRunning(name1);
+        boolean running2 = DockerController.getInstance().isContainerRunning(name2);
+        if (running1 || running2) {
             // Build the alert UI
             Alert alert = new Alert(Alert.AlertType.INFORMATION);
             alert.setTitle("Stopping Docker Containers");
@@ -107,7 +110,7 @@ public class Main extends Application {
                 protected Boolean call() {
                     try {
                         // No fine-grained progress from Docker; jump to 100% when finished
-                        boolean ok = DockerController.getInstance().stopContainerByNameOrId(name1, timeoutSeconds);
+                        boolean ok = !running1 || DockerController.getInstance().stopContainerByNameOrId(name1, timeoutSeconds);
                         updateProgress(1, 1);
                         return ok;
                     } catch (Throwable t) {
@@ -120,7 +123,7 @@ public class Main extends Application {
                 @Override
                 protected Boolean call() {
                     try {
-                        boolean ok = DockerController.getInstance().stopContainerByNameOrId(name2, timeoutSeconds);
+                        boolean ok = !running2 || DockerController.getInstance().stopContainerByNameOrId(name2, timeoutSeconds);
                         updateProgress(1, 1);
                         return ok;
                     } catch (Throwable t) {
@@ -208,6 +211,10 @@ public class Main extends Application {
 
     @Override
     public void stop() {
+        if (DockerController.getInstance().isPersistentContainers()) {
+            logger.info("Leaving the containers running, they stop after " + DockerController.getInstance().getIdleMinutes() + " idle minutes");
+            return;
+        }
         this.stopBothContainersWithOneAlert(HomeController.dockerAllToolsContainer, HomeController.dockerX3DNAContainer, 10);
     }
 
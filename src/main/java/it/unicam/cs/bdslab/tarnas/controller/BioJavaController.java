@@ -1,23 +1,37 @@
 package it.unicam.cs.bdslab.tarnas.controller;
 
+import it.unicam.cs.bdslab.tarnas.view.utils.FORMAT;
 import org.biojava.nbio.structure.*;
+import org.biojava.nbio.structure.io.CifFileReader;
 import org.biojava.nbio.structure.io.PDBFileReader;
 
-import java.io.FileWriter;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
 import java.util.function.Predicate;
 
 public class BioJavaController {
 
     private static final BioJavaController instance = new BioJavaController();
-    private final PDBFileReader reader;
+    // one reader per thread, since CSV rows may be preprocessed in parallel
+    private final ThreadLocal<PDBFileReader> reader;
+
+    // parsed source files, shared by all the rows of a CSV batch
+    private final StructureCache structureCache;
+
+    // downloaded entries, kept across runs
+    private volatile StructureMirror structureMirror;
+    private final StructureDownloader structureDownloader;
 
     public BioJavaController() {
-        reader = new PDBFileReader();
+        reader = ThreadLocal.withInitial(PDBFileReader::new);
+        structureCache = StructureCache.fromSystemProperties();
+        structureMirror = StructureMirror.fromSystemProperties();
+        structureDownloader = StructureDownloader.fromSystemProperties();
     }
 
     public static BioJavaController getInstance() {
@@ -25,7 +39,7 @@ public class BioJavaController {
     }
 
     public List<Structure> filterById(Path path, String chainId) throws IOException {
-        var structure = reader.getStructure(path.toFile());
+        var structure = readStructure(path);
         var filter = getFilter(chainId);
         var structures = new ArrayList<Structure>();
 
@@ -40,7 +54,7 @@ public class BioJavaController {
     }
 
     public List<Structure> filterByStar(Path path) throws IOException {
-        var structure = reader.getStructure(path.toFile());
+        var structure = readStructure(path);
         var filter = getFilter("*");
 
         var structures = new ArrayList<Structure>();
@@ -54,34 +68,118 @@ public class BioJavaController {
         return structures;
     }
 
-    public void save(Structure structure, Path dst) throws IOException {
-        String pdbContent = structure.toPDB();
-        String cifContent = structure.toMMCIF().replace(",", ".");
-        try (FileWriter writer = new FileWriter(dst.resolveSibling(dst.getFileName()+".pdb").toFile())) {
-            writer.write(pdbContent);
+    /**
+     * Chains of an mmCIF file by their original (author) chain ID, keeping only the RNA ones. An author
+     * chain may span several mmCIF chains (polymer, ligands, water), which are kept together.
+     *
+     * @param chainIds author chain IDs separated by ';', or "*" for all
+     */
+    public Map<String, Structure> filterCifByAuthorId(Path path, String chainIds) throws IOException {
+        var structure = readStructure(path);
+        var allowed = chainIds.equals("*") ? null : Set.of(chainIds.split(";"));
+        var byAuthorId = new LinkedHashMap<String, List<Chain>>();
+        for (Chain chain : structure.getChains()) {
+            var authorId = chain.getName() == null ? chain.getId() : chain.getName();
+            if (allowed == null || allowed.contains(authorId))
+                byAuthorId.computeIfAbsent(authorId, k -> new ArrayList<>()).add(chain);
+        }
+
+        var structures = new LinkedHashMap<String, Structure>();
+        for (var entry : byAuthorId.entrySet()) {
+            if (entry.getValue().stream().noneMatch(getRNAFilter())) continue;
+            StructureImpl authorChainStructure = new StructureImpl();
+            entry.getValue().forEach(authorChainStructure::addChain);
+            structures.put(entry.getKey(), authorChainStructure);
         }
-        try (FileWriter writer = new FileWriter(dst.resolveSibling(dst.getFileName()+".cif").toFile())) {
-            writer.write(cifContent);
+        return structures;
+    }
+
+    /**
+     * Parses the file once and serves later requests from the structure cache. Filtering wraps the
+     * cached chains in new single-chain structures, so each result must be saved before the same
+     * file is filtered again (rows of the same entry are never preprocessed concurrently).
+     */
+    private Structure readStructure(Path path) throws IOException {
+        return structureCache.get(path, p -> FORMAT.fromFileName(p.getFileName().toString()) == FORMAT.CIF
+                ? new CifFileReader().getStructure(p.toFile())
+                : reader.get().getStructure(p.toFile()));
+    }
+
+    /**
+     * Drops the parsed structures, e.g. at the end of a CSV batch.
+     */
+    public void clearStructureCache() {
+        structureCache.clear();
+    }
+
+    /**
+     * Writes the structure as dst.pdb and dst.cif, streaming the atom records to disk.
+     */
+    public void save(Structure structure, Path dst) throws IOException {
+        save(structure, dst, EnumSet.allOf(FORMAT.class));
+    }
+
+    /**
+     * Writes the structure only in the given formats, as dst.&lt;extension&gt;. A structure that does
+     * not fit the PDB format is written as mmCIF instead.
+     */
+    public void save(Structure structure, Path dst, Set<FORMAT> formats) throws IOException {
+        var writer = new StructureWriter();
+        boolean cif = formats.contains(FORMAT.CIF);
+        if (formats.contains(FORMAT.PDB)) {
+            try {
+                writer.writePDB(structure, dst.resolveSibling(dst.getFileName() + "." + FORMAT.PDB.getExtension()));
+            } catch (StructureWriter.PdbFormatException e) {
+                StructureWriter.logger.info("Writing " + dst.getFileName() + " as mmCIF only: " + e.getMessage());
+                cif = true;
+            }
         }
+        if (cif)
+            writer.writeMMCIF(structure, dst.resolveSibling(dst.getFileName() + "." + FORMAT.CIF.getExtension()));
+    }
 
+    /**
+     * Rewrites a chain file in the format given by the extension of dst.
+     * The file is written aside and then moved, so readers never see it half-written.
+     */
+    public void convert(Path src, Path dst) throws IOException {
+        var structure = src.getFileName().toString().endsWith("." + FORMAT.CIF.getExtension())
+                ? new CifFileReader().getStructure(src.toFile())
+                : reader.get().getStructure(src.toFile());
+        var tmp = dst.resolveSibling(dst.getFileName() + ".tmp");
+        var writer = new StructureWriter();
+        if (dst.getFileName().toString().endsWith("." + FORMAT.CIF.getExtension()))
+            writer.writeMMCIF(structure, tmp);
+        else
+            writer.writePDB(structure, tmp);
+        Files.move(tmp, dst, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
     }
 
-    public Path downloadPDB(String pdbId, String outputFolderPath) throws StructureException, IOException {
+    /**
+     * Gets the entry as &lt;ID&gt;.pdb, or as &lt;ID&gt;.cif if the archive has no PDB file for it (too large for
+     * the PDB format), from the local mirror or else from the server, streaming the raw file to disk.
+     */
+    public Path downloadPDB(String pdbId, String outputFolderPath) throws IOException {
         pdbId = pdbId.toUpperCase();
-        // Fetch the structure from the web using the ID.
-        Structure structure = StructureIO.getStructure(pdbId);
-
-        // Check if it is possible to save it as PDB, otherwise save it as CIF
-        boolean requiresCif = structure.getChains().stream()
-                .flatMap(chain -> chain.getAtomGroups().stream())
-                .flatMap(group -> group.getAtoms().stream())
-                .anyMatch(atom -> atom.getPDBserial() > 99999);
-        String content = requiresCif ? structure.toMMCIF() : structure.toPDB();
-        String extension = requiresCif ? ".cif" : ".pdb";
-
-        // Save
-        Path outputPath = Paths.get(outputFolderPath, pdbId + extension);
-        return Files.write(outputPath, content.getBytes());
+        var mirror = this.structureMirror;
+        if (mirror != null) {
+            var mirrored = mirror.restore(pdbId, Paths.get(outputFolderPath));
+            if (mirrored != null) return mirrored;
+            if (mirror.isOffline())
+                throw new FileNotFoundException(pdbId + " is not in the local mirror " + mirror.getRoot() + " (offline mode)");
+        }
+        return this.structureDownloader.download(pdbId, Paths.get(outputFolderPath), mirror);
+    }
+
+    public StructureMirror getStructureMirror() {
+        return this.structureMirror;
+    }
+
+    /**
+     * Sets the local mirror checked before downloading; null disables it.
+     */
+    public void setStructureMirror(StructureMirror structureMirror) {
+        this.structureMirror = structureMirror;
     }
 
     private Predicate<Chain> getFilter(String allowedIds) {
@@ -98,10 +196,24 @@ public class BioJavaController {
         return idFilter.and(getRNAFilter());
     }
 
+    /**
+     * Accepts the chains of the kinds selected in the {@link ResidueClassifier} (RNA and hybrids by
+     * default), classified by their residues.
+     */
     private Predicate<Chain> getRNAFilter() {
+        var classifier = ResidueClassifier.getInstance();
         return chain -> {
-            String seq = chain.getAtomSequence().toUpperCase();
-            return seq.matches(".*U.*"); // only RNA residues
+            var tally = new ResidueClassifier.Tally();
+            for (Group group : chain.getAtomGroups()) {
+                var componentId = group.getPDBName();
+                if (!classifier.isKnown(componentId)) {
+                    // looked up once per component, OTHER included
+                    var chemComp = group.getChemComp();
+                    classifier.define(componentId, chemComp != null ? chemComp.getType() : null);
+                }
+                tally.add(classifier.residue(componentId));
+            }
+            return classifier.accepts(tally.result());
         };
     }
 
@@ -0,0 +1,322 @@
+package it.unicam.cs.bdslab.tarnas.controller;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.logging.Logger;
+
+/**
+ * Converts an mmCIF entry into PDB-format bundles, in the JVM, as BeEM does: chains are packed in
+ * order of appearance into bundles of at most {@link #MAX_CHAINS} chains and {@link #MAX_ATOMS}
+ * atoms, renamed to the single-character chain IDs the PDB format allows, and the mapping from the
+ * new to the original (possibly multi-character) chain IDs is returned instead of written to disk.
+ * <p>
+ * The atom_site table is streamed twice, once to size the chains and once to write them, so memory
+ * does not grow with the entry. Only the first model is converted. The splitter keeps no state, so
+ * entries can be split concurrently as long as their bundles have different names.
+ */
+public class CifBundleSplitter {
+
+    public static final Logger logger = Logger.getLogger("it.unicam.cs.bdslab.tarnas.controller.CifBundleSplitter");
+
+    public static final String CHAIN_IDS = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789";
+    public static final int MAX_CHAINS = CHAIN_IDS.length();
+    public static final int MAX_ATOMS = 99999;
+
+    /**
+     * A chain of the entry, as renamed in its bundle.
+     */
+    public record BundleChain(Path bundle, String newChainId, String originalChainId) {
+    }
+
+    /**
+     * Splits the mmCIF file into &lt;stem&gt;-pdb-bundle&lt;n&gt;.pdb files of the bundles folder.
+     *
+     * @return the chains of the entry, in order of appearance
+     * @throws StructureWriter.PdbFormatException if the entry does not fit the PDB columns (residue
+     *                                            names over 3 characters, residue numbers over 4,
+     *                                            chains over {@link #MAX_ATOMS} atoms)
+     */
+    public List<BundleChain> split(Path cifFile, Path bundlesFolder, String stem) throws IOException {
+        // first pass: chains, their sizes and whether their atoms are contiguous
+        var atoms = new LinkedHashMap<String, Integer>();
+        var interrupted = new HashSet<String>();
+        var last = new String[1];
+        forEachAtom(cifFile, atom -> {
+            checkFits(atom, cifFile);
+            if (!atom.chain().equals(last[0]) && atoms.containsKey(atom.chain()))
+                interrupted.add(atom.chain());
+            last[0] = atom.chain();
+            atoms.merge(atom.chain(), 1, Integer::sum);
+        });
+        if (atoms.isEmpty())
+            throw new IOException("No atom_site records in " + cifFile);
+
+        var chains = new LinkedHashMap<String, BundleChain>();
+        int bundle = 0, chainsInBundle = 0, atomsInBundle = 0;
+        for (var entry : atoms.entrySet()) {
+            if (entry.getValue() > MAX_ATOMS)
+                throw new StructureWriter.PdbFormatException("Chain " + entry.getKey() + " of " + cifFile.getFileName()
+                        + " has " + entry.getValue() + " atoms, more than the " + MAX_ATOMS + " PDB serials");
+            if (chainsInBundle == MAX_CHAINS || (chainsInBundle > 0 && atomsInBundle + entry.getValue() > MAX_ATOMS)) {
+                bundle++;
+                chainsInBundle = 0;
+                atomsInBundle = 0;
+            }
+            var path = bundlesFolder.resolve(stem + "-pdb-bundle" + (bundle + 1) + ".pdb");
+            chains.put(entry.getKey(), new BundleChain(path, String.valueOf(CHAIN_IDS.charAt(chainsInBundle)), entry.getKey()));
+            chainsInBundle++;
+            atomsInBundle += entry.getValue();
+        }
+
+        // second pass: one writer per bundle, written aside and moved once complete
+        var writers = new LinkedHashMap<Path, BundleWriter>();
+        try {
+            for (var chain : chains.values()) {
+                if (!writers.containsKey(chain.bundle()))
+                    writers.put(chain.bundle(), new BundleWriter(chain.bundle()));
+                writers.get(chain.bundle()).add(chain.newChainId(), atoms.get(chain.originalChainId()), interrupted.contains(chain.originalChainId()));
+            }
+            forEachAtom(cifFile, atom -> {
+                var chain = chains.get(atom.chain());
+                writers.get(chain.bundle()).write(atom, chain.newChainId());
+            });
+            for (var writer : writers.values())
+                writer.finish();
+        } finally {
+            for (var writer : writers.values())
+                writer.discard();
+        }
+        logger.info("Split " + cifFile.getFileName() + " into " + writers.size() + " bundles of " + chains.size() + " chains");
+        return List.copyOf(chains.values());
+    }
+
+    private static void checkFits(Atom atom, Path cifFile) throws StructureWriter.PdbFormatException {
+        if (atom.resName().length() > 3)
+            throw new StructureWriter.PdbFormatException("Residue name " + atom.resName() + " of " + cifFile.getFileName()
+                    + " does not fit the PDB format");
+        if (atom.resSeq().length() > 4)
+            throw new StructureWriter.PdbFormatException("Residue number " + atom.resSeq() + " of " + cifFile.getFileName()
+                    + " does not fit the PDB format");
+    }
+
+    private record Atom(String record, String serial, String name, String altLoc, String resName, String chain,
+                        String resSeq, String insCode, double x, double y, double z, double occupancy,
+                        double bFactor, String element, String charge) {
+    }
+
+    @FunctionalInterface
+    private interface AtomConsumer {
+        void accept(Atom atom) throws IOException;
+    }
+
+    /**
+     * Streams the atoms of the first model of the atom_site loop.
+     */
+    private static void forEachAtom(Path cifFile, AtomConsumer consumer) throws IOException {
+        try (BufferedReader in = Files.newBufferedReader(cifFile, StandardCharsets.UTF_8)) {
+            var atomSite = CifReader.atomSite(in, tags -> null);
+            if (atomSite == null) return;
+
+            var columns = new HashMap<String, Integer>();
+            for (String tag : atomSite.tags())
+                columns.put(tag.substring("_atom_site.".length()), columns.size());
+            String line = atomSite.firstLine();
+            var c = new Columns(columns);
+            String firstModel = null;
+            var values = new ArrayList<String>();
+            for (; line != null; line = in.readLine()) {
+                if (line.startsWith("#") || line.startsWith("loop_") || line.startsWith("_") || line.startsWith("data_"))
+                    break;
+                CifReader.tokenize(line, values);
+                // a row may span several lines
+                if (values.size() < columns.size()) continue;
+                var model = c.get(values, "pdbx_PDB_model_num", "1");
+                if (firstModel == null) firstModel = model;
+                if (model.equals(firstModel))
+                    consumer.accept(c.atom(values));
+                values.clear();
+            }
+        }
+    }
+
+    private record Columns(Map<String, Integer> index) {
+
+        String get(List<String> values, String column, String missing) {
+            var i = index.get(column);
+            if (i == null) return missing;
+            var value = values.get(i);
+            return value.equals("?") || value.equals(".") ? missing : value;
+        }
+
+        String first(List<String> values, String column, String fallback) {
+            var value = get(values, column, null);
+            return value != null ? value : get(values, fallback, "");
+        }
+
+        Atom atom(List<String> values) {
+            return new Atom(get(values, "group_PDB", "ATOM"), get(values, "id", ""),
+                    first(values, "auth_atom_id", "label_atom_id"), get(values, "label_alt_id", ""),
+                    first(values, "auth_comp_id", "label_comp_id"), first(values, "auth_asym_id", "label_asym_id"),
+                    first(values, "auth_seq_id", "label_seq_id"), get(values, "pdbx_PDB_ins_code", ""),
+                    Double.parseDouble(get(values, "Cartn_x", "0")), Double.parseDouble(get(values, "Cartn_y", "0")),
+                    Double.parseDouble(get(values, "Cartn_z", "0")), Double.parseDouble(get(values, "occupancy", "1")),
+                    Double.parseDouble(get(values, "B_iso_or_equiv", "0")), get(values, "type_symbol", ""),
+                    get(values, "pdbx_formal_charge", ""));
+        }
+    }
+
+    /**
+     * Writes the chains of a bundle, each as one segment closed by TER. A chain whose atoms are
+     * interrupted by other chains in atom_site (e.g. ligands and waters listed at the end) is spooled
+     * to its own file and appended after the others; the serials follow the order of the file.
+     */
+    private static final class BundleWriter {
+        private final Path target;
+        private final Path tmp;
+        private final BufferedWriter out;
+        // by new chain ID, in order of appearance
+        private final Map<String, Segment> segments = new LinkedHashMap<>();
+        private boolean numbered;
+        private String lastChain;
+        private final StringBuilder line = new StringBuilder(96);
+        private char[] chars = new char[96];
+
+        private static final class Segment {
+            final int atoms;
+            final Path spool;
+            int serial;
+            BufferedWriter out;
+
+            Segment(int atoms, Path spool) {
+                this.atoms = atoms;
+                this.spool = spool;
+            }
+        }
+
+        BundleWriter(Path target) throws IOException {
+            this.target = target;
+            this.tmp = target.resolveSibling(target.getFileName() + ".tmp");
+            this.out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8);
+        }
+
+        /**
+         * Adds a chain of the bundle; all of them are added before the first atom is written.
+         */
+        void add(String chainId, int atoms, boolean interrupted) {
+            // chain IDs differ only by case on some file systems, their positions do not
+            var spool = interrupted ? target.resolveSibling(target.getFileName() + ".chain" + CHAIN_IDS.indexOf(chainId) + ".tmp") : null;
+            segments.put(chainId, new Segment(atoms, spool));
+        }
+
+        // the serials of the spooled chains follow those of the others
+        private void number() {
+            int serial = 0;
+            for (var segment : segments.values())
+                if (segment.spool == null) {
+                    segment.serial = serial;
+                    serial += segment.atoms;
+                }
+            for (var segment : segments.values())
+                if (segment.spool != null) {
+                    segment.serial = serial;
+                    serial += segment.atoms;
+                }
+            numbered = true;
+        }
+
+        void write(Atom atom, String chainId) throws IOException {
+            if (!numbered) number();
+            var segment = segments.get(chainId);
+            if (segment.spool != null) {
+                if (segment.out == null)
+                    segment.out = Files.newBufferedWriter(segment.spool, StandardCharsets.UTF_8);
+                writeAtom(segment.out, atom, chainId, ++segment.serial);
+                return;
+            }
+            if (lastChain != null && !lastChain.equals(chainId))
+                out.write("TER\n");
+            lastChain = chainId;
+            writeAtom(out, atom, chainId, ++segment.serial);
+        }
+
+        void finish() throws IOException {
+            for (var entry : segments.entrySet()) {
+                var segment = entry.getValue();
+                if (segment.out == null) continue;
+                segment.out.close();
+                if (lastChain != null) out.write("TER\n");
+                lastChain = entry.getKey();
+                try (var in = Files.newBufferedReader(segment.spool, StandardCharsets.UTF_8)) {
+                    in.transferTo(out);
+                }
+            }
+            out.write("TER\nEND\n");
+            out.close();
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        void discard() throws IOException {
+            out.close();
+            Files.deleteIfExists(tmp);
+            for (var segment : segments.values()) {
+                if (segment.out != null) segment.out.close();
+                if (segment.spool != null) Files.deleteIfExists(segment.spool);
+            }
+        }
+
+        private void writeAtom(BufferedWriter out, Atom atom, String chainId, int serial) throws IOException {
+            var name = atom.name();
+            // 4-character names and 2-letter elements start in column 13, the others in column 14
+            if (name.length() < 4 && atom.element().length() < 2) name = " " + name;
+            line.setLength(0);
+            line.append(atom.record().equals("HETATM") ? "HETATM" : "ATOM  ");
+            StructureWriter.padLeft(line, Integer.toString(serial), 5);
+            line.append(' ');
+            padRight(clip(name, 4), 4);
+            padRight(clip(atom.altLoc(), 1), 1);
+            StructureWriter.padLeft(line, atom.resName(), 3);
+            line.append(' ').append(chainId);
+            StructureWriter.padLeft(line, atom.resSeq(), 4);
+            padRight(clip(atom.insCode(), 1), 1);
+            line.append("   ");
+            StructureWriter.appendFixed(line, atom.x(), 3, 8);
+            StructureWriter.appendFixed(line, atom.y(), 3, 8);
+            StructureWriter.appendFixed(line, atom.z(), 3, 8);
+            StructureWriter.appendFixed(line, atom.occupancy(), 2, 6);
+            StructureWriter.appendFixed(line, atom.bFactor(), 2, 6);
+            line.append("          ");
+            StructureWriter.padLeft(line, clip(atom.element(), 2), 2);
+            StructureWriter.padLeft(line, formatCharge(atom.charge()), 2);
+            // the tools read the bundles, whatever the platform line separator
+            line.append('\n');
+            if (chars.length < line.length())
+                chars = new char[line.length() * 2];
+            line.getChars(0, line.length(), chars, 0);
+            out.write(chars, 0, line.length());
+        }
+
+        private void padRight(String value, int width) {
+            line.append(value);
+            for (int i = value.length(); i < width; i++)
+                line.append(' ');
+        }
+
+        private static String clip(String value, int width) {
+            return value.length() > width ? value.substring(0, width) : value;
+        }
+
+        // mmCIF writes -1, PDB writes 1-
+        private static String formatCharge(String charge) {
+            if (charge.isEmpty() || charge.equals("0")) return "";
+            var sign = charge.startsWith("-") ? "-" : "+";
+            var digits = charge.replaceAll("[+-]", "");
+            return digits + sign;
+        }
+    }
+}
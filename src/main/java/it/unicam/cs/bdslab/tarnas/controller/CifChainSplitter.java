@@ -0,0 +1,200 @@
+package it.unicam.cs.bdslab.tarnas.controller;
+
+import it.unicam.cs.bdslab.tarnas.view.utils.POLYMER;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+/**
+ * Splits an mmCIF file into one mmCIF file per RNA chain in a single pass over the file, without
+ * building a structure: rows are copied as they are to the file of their chain, so memory stays at
+ * the I/O buffers whatever the size of the entry.
+ * <p>
+ * Each chain file is a valid mmCIF file with the entry and atom_site categories only. Rows are
+ * split by author chain ID (auth_asym_id, the IDs of the CSV), or by label_asym_id. Only the first
+ * model is kept, and a chain is kept if the {@link ResidueClassifier} accepts its kind: the type of
+ * its polymer entity (entity_poly) when the entry has one, or else the kind of its residues, with
+ * the chem_comp types of the entry for the components not known in advance. Files whose atom_site
+ * rows span several lines are reported to the caller, which falls back to BioJava.
+ */
+public class CifChainSplitter {
+
+    public static final Logger logger = Logger.getLogger("it.unicam.cs.bdslab.tarnas.controller.CifChainSplitter");
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final boolean authorIds;
+
+    /**
+     * @param authorIds split by auth_asym_id if true, by label_asym_id otherwise
+     */
+    public CifChainSplitter(boolean authorIds) {
+        this.authorIds = authorIds;
+    }
+
+    /**
+     * Writes every selected chain of an accepted kind of the mmCIF file as &lt;stem&gt;_&lt;chain&gt;.cif
+     * in the output folder.
+     *
+     * @param chainIds chain IDs separated by ';', or "*" for all
+     * @return the IDs of the chains written, or null if the file has to be read by BioJava instead
+     */
+    public List<String> split(Path cifFile, String chainIds, Path outputFolder, String stem) throws IOException {
+        var allowed = chainIds.equals("*") ? null : Set.of(chainIds.split(";"));
+        var writers = new LinkedHashMap<String, Writer>();
+        // knows the components of this entry only, so that the result does not depend on other entries
+        var classifier = ResidueClassifier.getInstance().forEntry();
+        var entityKinds = new HashMap<String, POLYMER>();
+        var chainKinds = new HashMap<String, POLYMER>();
+        var tallies = new HashMap<String, ResidueClassifier.Tally>();
+        var keep = new HashSet<String>();
+        boolean complete = false;
+        try (BufferedReader in = Files.newBufferedReader(cifFile, StandardCharsets.UTF_8)) {
+            // categories before atom_site: polymer entity types and chemical component types
+            var atomSite = CifReader.atomSite(in, tags -> handler(tags, classifier, entityKinds));
+            if (atomSite == null) {
+                logger.info("No atom_site table in " + cifFile.getFileName());
+                return null;
+            }
+            var tags = atomSite.tags();
+            String line = atomSite.firstLine();
+
+            // the header of every chain file has the atom_site tags as they are
+            int chainColumn = column(tags, authorIds ? "auth_asym_id" : "label_asym_id", authorIds ? "label_asym_id" : null);
+            int compColumn = column(tags, "auth_comp_id", "label_comp_id");
+            int seqColumn = column(tags, "auth_seq_id", "label_seq_id");
+            int entityColumn = column(tags, "label_entity_id", null);
+            int modelColumn = column(tags, "pdbx_PDB_model_num", null);
+            if (chainColumn < 0) {
+                logger.info("No chain column in the atom_site table of " + cifFile.getFileName());
+                return null;
+            }
+
+            String firstModel = null;
+            String lastChain = null, lastSeq = null, lastComp = null;
+            var values = new ArrayList<String>(tags.size());
+            for (; line != null; line = in.readLine()) {
+                if (line.startsWith("#") || line.startsWith("loop_") || line.startsWith("_") || line.startsWith("data_"))
+                    break;
+                if (line.isBlank()) continue;
+                values.clear();
+                CifReader.tokenize(line, values);
+                if (values.size() != tags.size()) {
+                    logger.info("Multi-line atom_site rows in " + cifFile.getFileName());
+                    return null;
+                }
+                if (modelColumn >= 0) {
+                    if (firstModel == null) firstModel = values.get(modelColumn);
+                    else if (!firstModel.equals(values.get(modelColumn))) continue;
+                }
+                var chain = values.get(chainColumn);
+                if (allowed != null && !allowed.contains(chain)) continue;
+
+                if (entityColumn >= 0 && !chainKinds.containsKey(chain)) {
+                    var kind = entityKinds.get(values.get(entityColumn));
+                    if (kind != null) chainKinds.put(chain, kind);
+                }
+                // a chain of a known polymer kind the tool rejects is never written
+                var known = chainKinds.get(chain);
+                if (known != null && !classifier.accepts(known)) continue;
+
+                var out = writers.get(chain);
+                if (out == null) {
+                    out = open(outputFolder, stem, chain, tags);
+                    writers.put(chain, out);
+                }
+                if (compColumn >= 0) {
+                    var comp = values.get(compColumn);
+                    var seq = seqColumn >= 0 ? values.get(seqColumn) : null;
+                    // one count per residue, not per atom
+                    if (!chain.equals(lastChain) || !comp.equals(lastComp) || !Objects.equals(seq, lastSeq))
+                        tallies.computeIfAbsent(chain, c -> new ResidueClassifier.Tally()).add(classifier.residue(comp));
+                    lastChain = chain;
+                    lastComp = comp;
+                    lastSeq = seq;
+                }
+                out.write(line);
+                out.write('\n');
+            }
+            for (var chain : writers.keySet()) {
+                var kind = chainKinds.get(chain);
+                if (kind == null) {
+                    var tally = tallies.get(chain);
+                    kind = tally != null ? tally.result() : POLYMER.OTHER;
+                }
+                if (classifier.accepts(kind)) keep.add(chain);
+            }
+            complete = true;
+        } finally {
+            for (var entry : writers.entrySet()) {
+                var kept = complete && keep.contains(entry.getKey());
+                if (kept) entry.getValue().write("#\n");
+                entry.getValue().close();
+                if (!kept) Files.deleteIfExists(temp(outputFolder, stem, entry.getKey()));
+            }
+        }
+
+        var written = new ArrayList<String>();
+        for (var chain : writers.keySet()) {
+            if (!keep.contains(chain)) continue;
+            Files.move(temp(outputFolder, stem, chain), outputFolder.resolve(stem + "_" + chain + ".cif"),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            written.add(chain);
+        }
+        return written;
+    }
+
+    /**
+     * Handler of the rows of a category read before atom_site, or null if the category is not used.
+     */
+    private static Consumer<List<String>> handler(List<String> tags, ResidueClassifier classifier,
+                                                  Map<String, POLYMER> entityKinds) {
+        if (tags.isEmpty()) return null;
+        if (tags.get(0).startsWith("_entity_poly.")) {
+            int id = tags.indexOf("_entity_poly.entity_id"), type = tags.indexOf("_entity_poly.type");
+            if (id < 0 || type < 0) return null;
+            return row -> {
+                var kind = ResidueClassifier.ofEntityPolyType(row.get(type));
+                if (kind != POLYMER.OTHER) entityKinds.put(row.get(id), kind);
+            };
+        }
+        if (tags.get(0).startsWith("_chem_comp.")) {
+            int id = tags.indexOf("_chem_comp.id"), type = tags.indexOf("_chem_comp.type");
+            if (id < 0 || type < 0) return null;
+            return row -> {
+                classifier.define(row.get(id), row.get(type));
+            };
+        }
+        return null;
+    }
+
+    private static Writer open(Path outputFolder, String stem, String chain, List<String> tags) throws IOException {
+        var out = new BufferedWriter(Files.newBufferedWriter(temp(outputFolder, stem, chain), StandardCharsets.UTF_8), BUFFER_SIZE);
+        var name = stem + "_" + chain;
+        out.write("data_" + name + "\n#\n_entry.id " + name + "\n#\nloop_\n");
+        for (String tag : tags) {
+            out.write(tag);
+            out.write('\n');
+        }
+        return out;
+    }
+
+    private static Path temp(Path outputFolder, String stem, String chain) {
+        return outputFolder.resolve(stem + "_" + chain + ".cif.tmp");
+    }
+
+    private static int column(List<String> tags, String name, String fallback) {
+        int i = tags.indexOf("_atom_site." + name);
+        if (i < 0 && fallback != null) i = tags.indexOf("_atom_site." + fallback);
+        return i;
+    }
+}
@@ -0,0 +1,150 @@
+package it.unicam.cs.bdslab.tarnas.controller;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Streaming reader of the mmCIF syntax shared by the splitters: tokens, ';' text fields, loops and
+ * tag-value categories, up to the atom_site loop.
+ */
+final class CifReader {
+
+    /**
+     * Header of the atom_site loop.
+     *
+     * @param tags      the _atom_site. tags, in column order
+     * @param firstLine the line after the tags, where the rows start
+     */
+    record AtomSite(List<String> tags, String firstLine) {
+    }
+
+    private CifReader() {
+    }
+
+    /**
+     * Reads the categories before the atom_site loop, passing the rows of each category to the
+     * handler returned for its tags (null to skip it). Text fields are read as a whole, so none of
+     * their lines is taken for a tag or a loop_; the _atom_site. tags only count after a loop_.
+     *
+     * @return the atom_site header, or null if the file has no atom_site loop
+     */
+    static AtomSite atomSite(BufferedReader in, Function<List<String>, Consumer<List<String>>> handlers) throws IOException {
+        String line = in.readLine();
+        while (line != null) {
+            if (line.startsWith("loop_")) {
+                var tags = new ArrayList<String>();
+                for (line = in.readLine(); line != null && line.startsWith("_"); line = in.readLine())
+                    tags.add(line.trim());
+                if (!tags.isEmpty() && tags.get(0).startsWith("_atom_site."))
+                    return new AtomSite(tags, line);
+                line = readLoop(in, line, tags.size(), tags.isEmpty() ? null : handlers.apply(tags));
+            } else if (line.startsWith("_") && line.indexOf('.') > 0) {
+                var tags = new ArrayList<String>();
+                var values = new ArrayList<String>();
+                line = readItems(in, line, tags, values);
+                var handler = handlers.apply(tags);
+                if (handler != null && values.size() == tags.size()) handler.accept(values);
+            } else {
+                // e.g. a text field whose tag was not followed by a category name
+                if (line.startsWith(";")) readTextField(in, line);
+                line = in.readLine();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Reads the rows of a loop starting at the line, passing each to the handler (null skips them).
+     *
+     * @return the first line after the loop
+     */
+    static String readLoop(BufferedReader in, String line, int columns, Consumer<List<String>> handler) throws IOException {
+        var values = new ArrayList<String>();
+        for (; line != null; line = in.readLine()) {
+            if (line.startsWith("#") || line.startsWith("loop_") || line.startsWith("_") || line.startsWith("data_"))
+                break;
+            if (line.startsWith(";")) values.add(readTextField(in, line));
+            else tokenize(line, values);
+            if (handler == null) {
+                values.clear();
+                continue;
+            }
+            while (values.size() >= columns) {
+                var row = new ArrayList<>(values.subList(0, columns));
+                values.subList(0, columns).clear();
+                handler.accept(row);
+            }
+        }
+        return line;
+    }
+
+    /**
+     * Reads the tag-value pairs of a category written without loop_, starting at the line.
+     *
+     * @return the first line after the category
+     */
+    static String readItems(BufferedReader in, String line, List<String> tags, List<String> values) throws IOException {
+        var category = line.substring(0, line.indexOf('.') + 1);
+        var tokens = new ArrayList<String>();
+        while (line != null && line.startsWith(category)) {
+            tokens.clear();
+            tokenize(line, tokens);
+            tags.add(tokens.get(0));
+            line = in.readLine();
+            if (tokens.size() > 1) {
+                values.add(tokens.get(1));
+            } else if (line != null && line.startsWith(";")) {
+                // value in a text field on the next lines
+                values.add(readTextField(in, line));
+                line = in.readLine();
+            } else if (line != null) {
+                // value alone on the next line
+                tokens.clear();
+                tokenize(line, tokens);
+                values.add(tokens.isEmpty() ? "" : tokens.get(0));
+                line = in.readLine();
+            }
+        }
+        return line;
+    }
+
+    /**
+     * Reads a text field from its opening line (starting with ';') up to its closing ';' line.
+     */
+    static String readTextField(BufferedReader in, String first) throws IOException {
+        var text = new StringBuilder(first.substring(1));
+        String line;
+        while ((line = in.readLine()) != null && !line.startsWith(";"))
+            text.append('\n').append(line);
+        return text.toString();
+    }
+
+    /**
+     * Splits a data line into CIF tokens, honouring single and double quotes.
+     */
+    static void tokenize(String line, List<String> tokens) {
+        int i = 0, n = line.length();
+        while (i < n) {
+            char ch = line.charAt(i);
+            if (Character.isWhitespace(ch)) {
+                i++;
+            } else if (ch == '\'' || ch == '"') {
+                // a quote closes only when followed by whitespace or the end of line
+                int end = i + 1;
+                while (end < n && !(line.charAt(end) == ch && (end + 1 == n || Character.isWhitespace(line.charAt(end + 1)))))
+                    end++;
+                tokens.add(line.substring(i + 1, Math.min(end, n)));
+                i = end + 1;
+            } else {
+                int end = i;
+                while (end < n && !Character.isWhitespace(line.charAt(end))) end++;
+                tokens.add(line.substring(i, end));
+                i = end;
+            }
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package it.unicam.cs.bdslab.tarnas.controller;
+
+import it.unicam.cs.bdslab.tarnas.view.utils.TOOL;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.logging.Logger;
+
+/**
+ * Starts the all-tools and the X3DNA containers on demand, the first time a {@link TOOL} that
+ * needs them is scheduled, so that a run that does not use X3DNA never builds its image. Each
+ * container is started at most once: concurrent requests wait for the same start, and containers
+ * requested together start in parallel.
+ * Progress is reported separately for each container ({@link #TOOLS}, {@link #X3DNA}).
+ */
+public class ContainerStartup {
+
+    public static final Logger logger = Logger.getLogger("it.unicam.cs.bdslab.tarnas.controller.ContainerStartup");
+
+    public static final String TOOLS = "all-tools";
+    public static final String X3DNA = "x3dna";
+    public static final String PREPROCESSING = "preprocessing";
+
+    /**
+     * Image and container of a tool; dockerPath is the build context directory for the all-tools
+     * image, and the Dockerfile for the X3DNA one.
+     */
+    public record ContainerSpec(File dockerPath, String imageName, String imageTag, String containerName) {
+    }
+
+    @FunctionalInterface
+    public interface Listener {
+        Listener NONE = (step, progress, message) -> {
+        };
+
+        /**
+         * Called from the startup threads.
+         */
+        void progress(String step, double progress, String message);
+    }
+
+    private final DockerController dockerController;
+    private final ContainerSpec tools;
+    private final ContainerSpec x3dna;
+    private final Map<String, CompletableFuture<Void>> started = new ConcurrentHashMap<>();
+    private final ExecutorService pool = Executors.newCachedThreadPool(r -> {
+        var thread = new Thread(r, "tarnas-startup");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private volatile Listener listener = Listener.NONE;
+
+    public ContainerStartup(DockerController dockerController, ContainerSpec tools, ContainerSpec x3dna) {
+        this.dockerController = dockerController;
+        this.tools = tools;
+        this.x3dna = x3dna;
+    }
+
+    /**
+     * Receives the progress of the containers started from now on.
+     */
+    public void setListener(Listener listener) {
+        this.listener = listener == null ? Listener.NONE : listener;
+    }
+
+    /**
+     * Container needed by the tool.
+     */
+    public static String containerOf(TOOL tool) {
+        return tool == TOOL.X3DNA ? X3DNA : TOOLS;
+    }
+
+    /**
+     * Sets the folder mounted by the containers. Containers already started on another folder are
+     * started again on the new one when next needed; unless they are persistent, they are stopped now.
+     * Starts still in progress are waited for first, so that none of them binds the old folder after
+     * the change.
+     */
+    public synchronized void setSharedFolder(Path sharedFolder) throws InterruptedException {
+        var current = dockerController.getSharedFolder();
+        if (current != null && !current.toAbsolutePath().equals(sharedFolder.toAbsolutePath())) {
+            for (var container : List.copyOf(started.keySet())) {
+                var future = started.get(container);
+                if (!future.isDone()) {
+                    logger.info("Shared folder changed, waiting for the start of " + container);
+                    try {
+                        future.get();
+                    } catch (ExecutionException e) {
+                        // already logged, there is nothing to stop
+                    }
+                }
+                started.remove(container);
+                if (!future.isCompletedExceptionally() && !dockerController.isPersistentContainers()) {
+                    logger.info("Shared folder changed, stopping " + container);
+                    dockerController.stopContainerByNameOrId(spec(container).containerName(), 10);
+                }
+            }
+        }
+        dockerController.setSharedFolder(sharedFolder);
+    }
+
+    /**
+     * Starts in the background the containers needed by the tools, without waiting for them.
+     */
+    public void prestart(Collection<TOOL> tools) {
+        for (TOOL tool : tools)
+            start(containerOf(tool));
+    }
+
+    /**
+     * Returns once the container needed by the tool is running, starting it if needed.
+     */
+    public void ensureStarted(TOOL tool) throws IOException, InterruptedException {
+        ensureStarted(containerOf(tool));
+    }
+
+    public void ensureStarted(String container) throws IOException, InterruptedException {
+        try {
+            start(container).get();
+        } catch (ExecutionException e) {
+            var cause = e.getCause() instanceof CompletionException ce ? ce.getCause() : e.getCause();
+            if (cause instanceof IOException io) throw io;
+            if (cause instanceof InterruptedException) throw new IOException("Startup of " + container + " interrupted");
+            if (cause instanceof RuntimeException re) throw re;
+            throw new IOException("Startup of " + container + " failed", cause);
+        }
+    }
+
+    /**
+     * Forgets the failed starts, so that the next request tries again. Until then, a failed start
+     * fails every request immediately (e.g. every job of the run) instead of being retried by each.
+     */
+    public void retryFailed() {
+        started.values().removeIf(CompletableFuture::isCompletedExceptionally);
+    }
+
+    public boolean isStarted(String container) {
+        var future = started.get(container);
+        return future != null && future.isDone() && !future.isCompletedExceptionally();
+    }
+
+    private synchronized CompletableFuture<Void> start(String container) {
+        var future = started.get(container);
+        if (future != null) return future;
+        future = CompletableFuture.runAsync(() -> {
+            try {
+                startNow(container);
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        }, pool);
+        future.whenComplete((v, e) -> {
+            if (e != null) logger.severe("Startup of " + container + " failed: " + e.getCause());
+        });
+        started.put(container, future);
+        return future;
+    }
+
+    private void startNow(String container) throws IOException, InterruptedException {
+        var spec = spec(container);
+        DockerController.ProgressListener progress = (p, m) -> listener.progress(container, p, m);
+        if (container.equals(X3DNA))
+            dockerController.startX3dnaContainer(spec.dockerPath(), spec.imageName(), spec.imageTag(), spec.containerName(), progress);
+        else
+            dockerController.startToolsContainer(spec.dockerPath(), spec.imageName(), spec.imageTag(), spec.containerName(), progress);
+    }
+
+    private ContainerSpec spec(String container) {
+        return container.equals(X3DNA) ? x3dna : tools;
+    }
+}
@@ -3,15 +3,17 @@ package it.unicam.cs.bdslab.tarnas.controller;
 import com.github.dockerjava.api.DockerClient;
 import com.github.dockerjava.api.async.ResultCallback;
 import com.github.dockerjava.api.command.BuildImageResultCallback;
-import com.github.dockerjava.api.command.CreateContainerResponse;
 import com.github.dockerjava.api.command.ExecCreateCmdResponse;
+import com.github.dockerjava.api.command.InspectContainerResponse;
+import com.github.dockerjava.api.exception.NotFoundException;
 import com.github.dockerjava.api.model.*;
 import com.github.dockerjava.core.DefaultDockerClientConfig;
 import com.github.dockerjava.core.DockerClientBuilder;
 import com.github.dockerjava.core.command.ExecStartResultCallback;
 import com.github.dockerjava.transport.DockerHttpClient;
 import com.github.dockerjava.zerodep.ZerodepDockerHttpClient;
-import org.apache.commons.csv.CSVFormat;
+import it.unicam.cs.bdslab.tarnas.view.utils.FORMAT;
+import it.unicam.cs.bdslab.tarnas.view.utils.TOOL;
 import org.biojava.nbio.structure.Structure;
 
 import java.io.*;
@@ -19,20 +21,58 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 import java.util.logging.Logger;
+import java.util.regex.Pattern;
 
-public class DockerController {
+import static it.unicam.cs.bdslab.tarnas.view.utils.TOOL.*;
+
+/**
+ * Builds and drives the TARNAS containers, preprocesses the input CSV and runs the tools.
+ * Tools run in the containers unless another {@link ToolExecutor} is set, see {@link LocalToolExecutor}.
+ */
+public class DockerController implements ToolExecutor {
 
     public static final Logger logger = Logger.getLogger("it.unicam.cs.bdslab.tarnas.controller.DockerController");
 
     private static DockerController instance = new DockerController();
 
-    private CreateContainerResponse container;
+    private String toolsContainerId;
     private final DockerClient dockerClient;
-    private final String preprocessingPath = "/data/preprocessed";
-    private final String mappingsPath = "/data/mappings";
-    private final String bundlesPath = "/data/bundles";
     private Path sharedFolder;
+    private Path csvFile;
+    private ContainerStartup containerStartup;
+    private final boolean persistentContainers = Boolean.getBoolean("tarnas.containers.persistent");
+    private final int idleMinutes = Integer.getInteger("tarnas.containers.idleMinutes", 30);
+    private final Set<String> keptAlive = ConcurrentHashMap.newKeySet();
+    private ScheduledExecutorService heartbeat;
+    private String x3dnaContainerName;
+    private String toolsImageName;
+    private String x3dnaImageName;
+    private ToolResultCache resultCache = ToolResultCache.fromSystemProperties();
+    private ToolExecutor toolExecutor = LocalToolExecutor.fromSystemProperties();
+    private final ToolScheduler toolScheduler = new ToolScheduler();
+    private final Map<String, Object> pdbLocks = new ConcurrentHashMap<>();
+    // chains of the mmCIF entries of the current batch, as renamed in their bundles
+    private final Map<String, List<CifBundleSplitter.BundleChain>> cifBundles = new ConcurrentHashMap<>();
+    private final CifBundleSplitter cifBundleSplitter = new CifBundleSplitter();
+    // one per preprocessing thread, they reuse their buffers
+    private final ThreadLocal<PdbChainSplitter> pdbChainSplitter = ThreadLocal.withInitial(PdbChainSplitter::new);
+    private final CifChainSplitter cifChainSplitter = new CifChainSplitter(true);
+    private final boolean streamingSplit = Boolean.parseBoolean(System.getProperty("tarnas.preprocessing.streaming", "true"));
+    private final Map<Path, Object> conversionLocks = new ConcurrentHashMap<>();
+    private Set<FORMAT> preprocessingFormats = EnumSet.allOf(FORMAT.class);
+    // mmCIF entries are split straight into mmCIF chains when every planned tool reads them
+    private boolean cifNativePreprocessing;
+    // skip the jobs the journal of the shared folder records as done
+    private volatile boolean resume = Boolean.parseBoolean(System.getProperty("tarnas.journal.resume", "true"));
+    private volatile boolean retryFailedOnly;
+    // receives the stem of every chain file written by the preprocessing, in streaming mode
+    private volatile ChainSink chainSink;
+    private int preprocessingParallelism = Integer.getInteger("tarnas.preprocessing.threads", 1);
+    private List<String> preprocessingErrors = List.of();
     private final BioJavaController bioJavaController = BioJavaController.getInstance();
 
     private DockerController() {
@@ -48,30 +88,74 @@ public class DockerController {
                 .build();
     }
 
-    public int buildDockerContainerBy(File dockerContext, String imageName, String imageTag, String containerName, Path sharedFolder) throws IOException, InterruptedException {
+    /**
+     * Progress of a startup step, from 0 to 1.
+     */
+    @FunctionalInterface
+    public interface ProgressListener {
+        ProgressListener NONE = (progress, message) -> {
+        };
+
+        void progress(double progress, String message);
+    }
+
+    /**
+     * "Step 3/12" (classic builder) or "[2/6]", "[stage-1 2/6]" (buildx plain progress) build output.
+     */
+    private static final Pattern BUILD_STEP = Pattern.compile("(?:^Step |\\[(?:\\S+ )?)(\\d+)/(\\d+)");
+    private static final double IMAGE_READY = 0.8;
+
+    /**
+     * Labels of the containers, recording what they were created for.
+     */
+    public static final String SHARED_FOLDER_LABEL = "it.unicam.cs.bdslab.tarnas.shared";
+    public static final String IMAGE_LABEL = "it.unicam.cs.bdslab.tarnas.image";
+
+    /**
+     * Persistent containers stop by themselves once this file has not been touched for the idle timeout.
+     */
+    private static final String HEARTBEAT = "/tmp/tarnas-heartbeat";
+    private static final String WATCHDOG = "touch " + HEARTBEAT + "; "
+            + "while [ $(( $(date +%s) - $(stat -c %Y " + HEARTBEAT + ") )) -lt \"$1\" ]; do sleep 30; done";
+
+    /**
+     * Shared folder mounted on /data in the containers; must be set before starting them.
+     */
+    public void setSharedFolder(Path sharedFolder) {
         this.sharedFolder = sharedFolder;
-        // Build the image
-        List<Image> images = dockerClient.listImagesCmd().exec();
-        boolean imageExists = false;
-        for (Image image : images) {
-            if (!imageExists) {
-                String[] tags = image.getRepoTags();
-                if (tags != null) {
-                    for (String tag : tags) {
-                        if ((imageName + ":" + imageTag).equals(tag)) {
-                            logger.info("Image found with ID: " + image.getId());
-                            break;
-                        }
-                    }
-                }
-            }
-        }
+    }
 
-        if (!imageExists) {
-            logger.info("Building image...");
-            String imageId = dockerClient.buildImageCmd(dockerContext).withTags(Set.of(imageName)).exec(new BuildImageResultCallback()).awaitImageId();
+    public Path getSharedFolder() {
+        return this.sharedFolder;
+    }
+
+    /**
+     * Builds the all-tools image if needed and starts its container on the shared folder.
+     */
+    public void startToolsContainer(File dockerContext, String imageName, String imageTag, String containerName, ProgressListener listener) throws IOException, InterruptedException {
+        this.toolsImageName = imageName;
+        listener.progress(0, "Checking image");
+        // Build the image, unless it was built from the same context
+        String image = imageName + ":" + imageTag;
+        String fingerprint = ImageFingerprint.of(dockerContext.toPath(), null);
+        String builtFrom = imageLabel(image, ImageFingerprint.LABEL);
+        if (fingerprint.equals(builtFrom)) {
+            logger.info("Image " + image + " is up to date");
+        } else {
+            logger.info(builtFrom == null ? "Building image..." : "Docker context changed, rebuilding image...");
+            String imageId = dockerClient.buildImageCmd(dockerContext)
+                    .withTags(Set.of(image))
+                    .withLabels(Map.of(ImageFingerprint.LABEL, fingerprint))
+                    .exec(new BuildImageResultCallback() {
+                        @Override
+                        public void onNext(BuildResponseItem item) {
+                            reportBuildStep(item.getStream(), listener);
+                            super.onNext(item);
+                        }
+                    }).awaitImageId();
             logger.info("Image built: " + imageId);
         }
+        listener.progress(IMAGE_READY, "Starting container");
 
         // Define shared folder (host and container paths)
         String hostSharedFolder = new File(sharedFolder.toUri()).getAbsolutePath();  // Ensure it exists
@@ -82,55 +166,221 @@ public class DockerController {
                 .withBinds(new Bind(hostSharedFolder, new Volume(containerSharedFolder)) // ./shared → /data
                 );
 
+        String imageId = imageDigest(image);
+        if (persistentContainers) {
+            String reusable = reusableContainer(containerName, imageId, hostSharedFolder);
+            if (reusable != null) {
+                this.toolsContainerId = reusable;
+                keepAlive(reusable);
+                logger.info("Reattached to container " + containerName);
+                listener.progress(1, "Container ready (reattached)");
+                return;
+            }
+        }
 
-        container = dockerClient.createContainerCmd(imageName).withName(containerName).withHostConfig(hostConfig).exec();
+        // a container left from a previous folder (or still being auto-removed) would clash with the name
+        try {
+            dockerClient.removeContainerCmd(containerName).withForce(true).exec();
+        } catch (NotFoundException ignored) {
+            // nothing to remove
+        }
+        var create = dockerClient.createContainerCmd(image).withName(containerName).withHostConfig(hostConfig)
+                .withLabels(containerLabels(hostSharedFolder, imageId));
+        if (persistentContainers)
+            create = create.withCmd("bash", "-c", WATCHDOG, "tarnas", String.valueOf(idleMinutes * 60));
+        String containerId = create.exec().getId();
 
         // Start the container
-        dockerClient.startContainerCmd(container.getId()).exec();
-        logger.info("Container started: " + container.getId());
+        dockerClient.startContainerCmd(containerId).exec();
+        this.toolsContainerId = containerId;
+        if (persistentContainers) keepAlive(containerId);
+        logger.info("Container started: " + containerId);
+        listener.progress(1, "Container ready");
+    }
+
+    /**
+     * Starts the containers lazily, when a tool first needs them; null if they are started
+     * explicitly with {@link #startToolsContainer} and {@link #startX3dnaContainer}.
+     */
+    public void setContainerStartup(ContainerStartup containerStartup) {
+        this.containerStartup = containerStartup;
+    }
+
+    public ContainerStartup getContainerStartup() {
+        return this.containerStartup;
+    }
 
-        // --- ensure /data/preprocessed inside the container (not on host explicitly) ---
-        makeDirInContainer(container.getId(), preprocessingPath);
+    /**
+     * Whether containers outlive the application, see {@link #reusableContainer}.
+     */
+    public boolean isPersistentContainers() {
+        return this.persistentContainers;
+    }
 
-        // mappings folder
-        makeDirInContainer(container.getId(), mappingsPath);
+    public int getIdleMinutes() {
+        return this.idleMinutes;
+    }
 
-        // bundles folder
-        makeDirInContainer(container.getId(), bundlesPath);
+    private static Map<String, String> containerLabels(String hostSharedFolder, String imageId) {
+        var labels = new HashMap<String, String>();
+        labels.put(SHARED_FOLDER_LABEL, hostSharedFolder);
+        if (imageId != null) labels.put(IMAGE_LABEL, imageId);
+        return labels;
+    }
+
+    /**
+     * In persistent mode, containers are not stopped on exit but once idle for tarnas.containers.idleMinutes
+     * (30 by default), so the next session can reattach to them. A container is reused only if it is
+     * running, answers an exec, and its labels show it was created on the same shared folder from the
+     * current image; otherwise it is replaced.
+     *
+     * @return the id of the reusable container, or null
+     */
+    private String reusableContainer(String containerName, String imageId, String hostSharedFolder) throws InterruptedException {
+        InspectContainerResponse info;
+        try {
+            info = dockerClient.inspectContainerCmd(containerName).exec();
+        } catch (NotFoundException e) {
+            return null;
+        }
+        var labels = info.getConfig() == null ? null : info.getConfig().getLabels();
+        if (labels == null || info.getState() == null || !Boolean.TRUE.equals(info.getState().getRunning()))
+            return null;
+        if (!hostSharedFolder.equals(labels.get(SHARED_FOLDER_LABEL))) {
+            logger.info("Container " + containerName + " is bound to another folder, replacing it");
+            return null;
+        }
+        if (imageId == null || !imageId.equals(labels.get(IMAGE_LABEL))) {
+            logger.info("Container " + containerName + " runs an older image, replacing it");
+            return null;
+        }
+        try {
+            return execInContainer(info.getId(), "touch", HEARTBEAT) == 0 ? info.getId() : null;
+        } catch (RuntimeException e) {
+            logger.info("Container " + containerName + " is not healthy, replacing it: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Touches the heartbeat of a persistent container while the application runs.
+     */
+    private synchronized void keepAlive(String container) {
+        keptAlive.add(container);
+        if (heartbeat != null) return;
+        heartbeat = Executors.newSingleThreadScheduledExecutor(r -> {
+            var thread = new Thread(r, "tarnas-heartbeat");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(1, Math.min(60, idleMinutes * 60L / 2));
+        heartbeat.scheduleAtFixedRate(() -> {
+            for (String c : keptAlive) {
+                try {
+                    execInContainer(c, "touch", HEARTBEAT);
+                } catch (Exception e) {
+                    logger.info("Container " + c + " is gone: " + e.getMessage());
+                    keptAlive.remove(c);
+                }
+            }
+        }, period, period, TimeUnit.SECONDS);
+    }
+
+    private void ensureContainer(TOOL tool) throws IOException, InterruptedException {
+        var startup = this.containerStartup;
+        if (startup != null)
+            startup.ensureStarted(tool);
+    }
+
+    /**
+     * Preprocesses the CSV of the shared folder. No container is needed.
+     *
+     * @return false if there is no CSV to process
+     */
+    public boolean preprocessCsv(ProgressListener listener) throws IOException, InterruptedException {
+        // working folders, created from the host so that the host user owns them
+        for (String folder : List.of("preprocessed", "bundles"))
+            Files.createDirectories(sharedFolder.resolve(folder));
 
         // --- process exactly ONE CSV in sharedFolder ---
         Path csv = pickSingleCsv();
         if (csv == null) {
             logger.info("No CSV file found in " + sharedFolder + " — nothing to process.");
-            return 0;
+            listener.progress(1, "No CSV file to process");
+            return false;
         }
         logger.info("Using CSV: " + csv.getFileName());
 
-        processCsvAndFilterPdbs(csv);
-        return 1;
+        processCsvAndFilterPdbs(csv, listener);
+        return true;
     }
 
-    private void makeDirInContainer(String containerId, String dir) throws IOException, InterruptedException {
-        String[] mkdirCmd = {"mkdir", "-p", dir};
-        ExecCreateCmdResponse execCreate = dockerClient.execCreateCmd(containerId)
-                .withAttachStdout(true)
-                .withAttachStderr(true)
-                .withCmd(mkdirCmd)
-                .exec();
+    /**
+     * Plans the preprocessing of the CSV of the shared folder without running it, e.g. for a dry run.
+     *
+     * @return the plan, or null if there is no CSV to process
+     */
+    public PreprocessingPlan planCsv() throws IOException {
+        Path csv = pickSingleCsv();
+        if (csv == null) return null;
+        return plan(readCsvRows(csv));
+    }
 
-        dockerClient.execStartCmd(execCreate.getId())
-                .exec(new ExecStartResultCallback(System.out, System.err))
-                .awaitCompletion();
+    private PreprocessingPlan plan(List<CsvRow> rows) throws IOException {
+        var planRows = new ArrayList<PreprocessingPlan.Row>(rows.size());
+        for (var row : rows)
+            planRows.add(new PreprocessingPlan.Row(row.lineNumber(), row.pdbID(), row.chain()));
+        var mirror = bioJavaController.getStructureMirror();
+        try {
+            return PreprocessingPlan.of(planRows, pdbID -> {
+                try {
+                    var local = sharedFolder.resolve(pdbID + ".pdb");
+                    if (Files.exists(local))
+                        return new PreprocessingPlan.Location(PreprocessingPlan.Source.LOCAL, Files.size(local));
+                    long mirrored = mirror != null ? mirror.size(pdbID) : -1;
+                    if (mirrored >= 0)
+                        return new PreprocessingPlan.Location(PreprocessingPlan.Source.MIRROR, mirrored);
+                    return new PreprocessingPlan.Location(PreprocessingPlan.Source.DOWNLOAD, -1);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
 
-        logger.info("Ensured directory exists in container: " + dir);
+    private static void reportBuildStep(String output, ProgressListener listener) {
+        if (output == null) return;
+        var step = BUILD_STEP.matcher(output.trim());
+        if (!step.find()) return;
+        int current = Integer.parseInt(step.group(1));
+        int total = Integer.parseInt(step.group(2));
+        if (total > 0 && current <= total)
+            listener.progress(IMAGE_READY * (current - 1) / total, "Building image: step " + current + "/" + total);
     }
 
     /**
-     * Pick exactly one CSV in the folder:
+     * Value of a label of a local image, or null if the image or the label do not exist.
+     */
+    private String imageLabel(String image, String label) {
+        try {
+            var config = dockerClient.inspectImageCmd(image).exec().getConfig();
+            var labels = config == null ? null : config.getLabels();
+            return labels == null ? null : labels.get(label);
+        } catch (NotFoundException e) {
+            return null;
+        }
+    }
+
+
+    /**
+     * Pick exactly one CSV in the folder, unless one was given with {@link #setCsvFile(Path)}:
      * - If none: return null.
      * - If multiple: pick the first after sorting by filename, and log a warning.
      */
     private Path pickSingleCsv() throws IOException {
+        if (this.csvFile != null) return this.csvFile;
         List<Path> csvs = new ArrayList<>();
         try (DirectoryStream<Path> ds = Files.newDirectoryStream(sharedFolder, "*.csv")) {
             for (Path p : ds) csvs.add(p);
@@ -147,14 +397,106 @@ public class DockerController {
      * Reads the single CSV and processes potentially many PDB rows.
      * CSV: col0 = pdbPath (relative to /data), col1 = chainFilter (e.g., "A;B").
      * Output: /data/preprocessed/<basename>_filtered.pdb
+     * <p>
+     * The rows are first coalesced by PDB ID into a {@link PreprocessingPlan}, so that every entry is
+     * fetched and split once for all the chains its rows ask for. Missing structures are downloaded
+     * by a {@link StructurePrefetcher} ahead of the filtering, so downloads overlap with the filtering
+     * of the entries already available; with a preprocessing parallelism greater than 1 the entries
+     * are filtered by a bounded worker pool. Errors are reported in CSV order once all rows are done.
      */
-    private void processCsvAndFilterPdbs(Path csvFile) throws IOException {
+    private void processCsvAndFilterPdbs(Path csvFile, ProgressListener listener) throws IOException, InterruptedException {
         var preprocessedFolder = sharedFolder.resolve("preprocessed");
+        var rows = readCsvRows(csvFile);
+        var plan = plan(rows);
+        var entries = plan.getEntries();
+        // by first row of the entry, which reports the error of the whole entry
+        var errors = new String[rows.size()];
+        var done = new AtomicInteger();
+        listener.progress(0, "Preprocessing " + rows.size() + " rows");
+        logger.info("Coalesced " + rows.size() + " rows into " + entries.size() + " entries, "
+                + plan.getDuplicateRows().size() + " duplicate rows");
+
+        var prefetcher = StructurePrefetcher.fromSystemProperties(
+                id -> bioJavaController.downloadPDB(id, String.valueOf(sharedFolder)));
+        try (var pipeline = prefetcher.<PreprocessingPlan.Entry>start(entries,
+                PreprocessingPlan.Entry::pdbID,
+                entry -> needsDownload(entry.pdbID()))) {
+            Callable<Void> consumer = () -> {
+                StructurePrefetcher.Ready<PreprocessingPlan.Entry> ready;
+                while ((ready = pipeline.take()) != null) {
+                    var entry = ready.item();
+                    var first = rows.get(entry.rows().get(0));
+                    var row = new CsvRow(first.lineNumber(), first.line(), entry.pdbID(), entry.chains());
+                    errors[entry.rows().get(0)] = processRow(row, preprocessedFolder, ready.file(), ready.error());
+                    int n = done.addAndGet(entry.rows().size());
+                    listener.progress((double) n / rows.size(), "Preprocessed " + n + "/" + rows.size() + " rows");
+                }
+                return null;
+            };
+
+            int workers = Math.min(this.preprocessingParallelism, entries.size());
+            if (workers <= 1) {
+                try {
+                    consumer.call();
+                } catch (InterruptedException | RuntimeException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new IOException(e);
+                }
+            } else {
+                logger.info("Preprocessing " + rows.size() + " rows with " + workers + " workers");
+                ExecutorService pool = Executors.newFixedThreadPool(workers);
+                try {
+                    for (var future : pool.invokeAll(Collections.nCopies(workers, consumer))) {
+                        try {
+                            future.get();
+                        } catch (ExecutionException e) {
+                            if (e.getCause() instanceof InterruptedException ie) throw ie;
+                            throw new IOException("Preprocessing failed", e.getCause());
+                        }
+                    }
+                } finally {
+                    pool.shutdownNow();
+                }
+            }
+        }
+
+        // report in CSV order, whatever the completion order was
+        var entryOf = new PreprocessingPlan.Entry[rows.size()];
+        for (var entry : entries) entryOf[entry.rows().get(0)] = entry;
+        var rowErrors = new ArrayList<String>();
+        int failedRows = 0;
+        for (int i = 0; i < rows.size(); i++) {
+            if (errors[i] == null) continue;
+            var lines = new StringJoiner(", ");
+            for (int r : entryOf[i].rows()) lines.add(String.valueOf(rows.get(r).lineNumber()));
+            rowErrors.add((entryOf[i].rows().size() > 1 ? "Lines " : "Line ") + lines + ": " + errors[i]);
+            logger.severe(rowErrors.get(rowErrors.size() - 1));
+            failedRows += entryOf[i].rows().size();
+        }
+        this.preprocessingErrors = rowErrors;
+        logger.info("Preprocessed " + (rows.size() - failedRows) + "/" + rows.size() + " rows");
+
+        // the parsed structures are only shared within a batch
+        bioJavaController.clearStructureCache();
+
+        // DELETE bundles after processing
+        cifBundles.clear();
+        deleteDirectoryRecursively(sharedFolder.resolve("bundles"));
+    }
+
+    private record CsvRow(int lineNumber, String line, String pdbID, String chain) {
+    }
+
+    private List<CsvRow> readCsvRows(Path csvFile) throws IOException {
+        var rows = new ArrayList<CsvRow>();
         try (BufferedReader br = Files.newBufferedReader(csvFile, StandardCharsets.UTF_8)) {
             String line;
+            int lineNumber = 0;
             boolean headerSkipped = false;
 
             while ((line = br.readLine()) != null) {
+                lineNumber++;
                 if (line.isBlank()) continue;
 
                 if (!headerSkipped && looksLikeHeader(line)) {
@@ -170,43 +512,106 @@ public class DockerController {
 
                 String pdbID = cols[0].trim();   // path relative to /data
                 String chain = cols[1].trim();  // e.g., "A;B"
+                rows.add(new CsvRow(lineNumber, line, pdbID, chain));
+            }
+        }
+        return rows;
+    }
 
-                // Host path for reading (bind of /data)
-                Path fileToFilter = sharedFolder.resolve(pdbID + ".pdb");
-                var isPDB = true;
+    /**
+     * Whether the structure of the entry has to be downloaded.
+     */
+    private boolean needsDownload(String pdbID) {
+        return !Files.exists(sharedFolder.resolve(pdbID + ".pdb"))
+                && !cifBundles.containsKey(pdbID.toUpperCase(Locale.ROOT));
+    }
 
-                if (!Files.exists(fileToFilter)) {
-                    logger.info("Try to download the PDB file using PDB ID");
-                    try {
-                        fileToFilter = bioJavaController.downloadPDB(pdbID, String.valueOf(sharedFolder));
-                        if (fileToFilter.toString().endsWith("cif")) {
-                            logger.info("CIF format recognized");
-                            isPDB = false;
-                            this.beem(pdbID + ".cif");
-                            this.moveFiles(pdbID);
+    /**
+     * Converts (if needed) and filters the structure of one CSV row.
+     *
+     * @param downloaded    the file prefetched for the entry, if it was missing
+     * @param downloadError why the entry could not be prefetched, if it failed
+     * @return null on success, otherwise the error message
+     */
+    private String processRow(CsvRow row, Path preprocessedFolder, Path downloaded, Exception downloadError) throws InterruptedException {
+        var pdbID = row.pdbID();
+        var key = pdbID.toUpperCase(Locale.ROOT);
+        synchronized (pdbLocks.computeIfAbsent(key, k -> new Object())) {
+            // Host path for reading (bind of /data)
+            Path fileToFilter = sharedFolder.resolve(pdbID + ".pdb");
+            var isPDB = true;
+            var isCifNative = false;
+
+            if (!Files.exists(fileToFilter)) {
+                if (cifBundles.containsKey(key)) {
+                    // already converted by a previous row of the same entry
+                    isPDB = false;
+                } else if (downloadError != null || downloaded == null) {
+                    logger.severe("ERROR: " + downloadError);
+                    return "Download of " + pdbID + " failed - " + downloadError;
+                } else {
+                    fileToFilter = downloaded;
+                    if (fileToFilter.toString().endsWith("cif")) {
+                        logger.info("CIF format recognized");
+                        isPDB = false;
+                        // split straight from the mmCIF file, no bundles needed
+                        isCifNative = cifNativePreprocessing;
+                    }
+                    if (!isPDB && !isCifNative) {
+                        try {
+                            cifBundles.put(key, cifBundleSplitter.split(fileToFilter, sharedFolder.resolve("bundles"),
+                                    pdbID.toLowerCase(Locale.ROOT)));
+                        } catch (StructureWriter.PdbFormatException e) {
+                            // no PDB bundle can hold it, the chains are written as mmCIF
+                            logger.info("Splitting " + pdbID + " as mmCIF: " + e.getMessage());
+                            isCifNative = true;
+                        } catch (Exception e) {
+                            logger.severe("ERROR: " + e);
+                            return "Conversion of " + pdbID + " failed - " + e;
                         }
-                    } catch (Exception e) {
-                        logger.severe("ERROR: " + e);
-                        continue;
                     }
                 }
-                // preprocessing
-                try {
-                    if (isPDB) {
-                        filterPDB(chain, pdbID, preprocessedFolder, fileToFilter);
-                    } else {
-                        filterCIF(chain, pdbID, preprocessedFolder);
-                    }
-
-                } catch (Exception e) {
-                    logger.severe("Failed processing row: " + line + " - " + e.getMessage() + " " + e);
+            }
+            // preprocessing
+            try {
+                if (isCifNative) {
+                    filterCifNative(row.chain(), pdbID, preprocessedFolder, fileToFilter);
+                } else if (isPDB) {
+                    filterPDB(row.chain(), pdbID, preprocessedFolder, fileToFilter);
+                } else {
+                    filterCIF(row.chain(), pdbID, preprocessedFolder, cifBundles.get(key));
                 }
+                return null;
+            } catch (InterruptedException e) {
+                throw e;
+            } catch (Exception e) {
+                logger.severe("Failed processing row: " + row.line() + " - " + e.getMessage() + " " + e);
+                return "Failed processing row: " + row.line() + " - " + e;
             }
         }
+    }
 
-        // DELETE bundles and mappings directories after processing
-        deleteDirectoryRecursively(sharedFolder.resolve("bundles"));
-        deleteDirectoryRecursively(sharedFolder.resolve("mappings"));
+    /**
+     * CSV to preprocess instead of the single CSV of the shared folder; null restores the default.
+     */
+    public void setCsvFile(Path csvFile) {
+        this.csvFile = csvFile;
+    }
+
+    /**
+     * Number of CSV rows preprocessed at the same time; 1 processes the rows one after the other.
+     */
+    public void setPreprocessingParallelism(int workers) {
+        if (workers < 1)
+            throw new IllegalArgumentException("Parallelism must be at least 1, got " + workers);
+        this.preprocessingParallelism = workers;
+    }
+
+    /**
+     * Errors of the last CSV preprocessing, in CSV order.
+     */
+    public List<String> getPreprocessingErrors() {
+        return this.preprocessingErrors;
     }
 
     private static String[] parseRow(String line) {
@@ -219,36 +624,61 @@ public class DockerController {
         return lower.contains("id") || lower.contains("chain");
     }
 
-    public int buildxDockerContainerBy(File dockerFile, String imageName, String imageTag, String containerName) throws IOException, InterruptedException {
+    /**
+     * Builds the X3DNA image with buildx if needed and starts its container on the shared folder.
+     */
+    public void startX3dnaContainer(File dockerFile, String imageName, String imageTag, String containerName, ProgressListener listener) throws IOException, InterruptedException {
         File contextDir = dockerFile.getParentFile();
+        listener.progress(0, "Checking image");
+        this.x3dnaImageName = imageName;
 
-        // Check if the image already exists
-        Process checkImage = new ProcessBuilder("docker", "images", "-q", imageName)
-                .redirectErrorStream(true)
-                .start();
-
-        BufferedReader reader = new BufferedReader(new InputStreamReader(checkImage.getInputStream()));
-        String imageId = reader.readLine();
-        checkImage.waitFor();
+        // Build the image, unless it was built from the same context
+        String fingerprint = ImageFingerprint.of(contextDir.toPath(), dockerFile.toPath());
+        String builtFrom = imageLabel(imageName + ":" + imageTag, ImageFingerprint.LABEL);
 
-        if (imageId == null || imageId.isEmpty()) {
-            logger.info("Building " + imageName + " image...");
+        if (!fingerprint.equals(builtFrom)) {
+            logger.info((builtFrom == null ? "Building " : "Docker context changed, rebuilding ") + imageName + " image...");
             // Create buildx builder
             new ProcessBuilder("docker", "buildx", "create", "--use")
                     .inheritIO().start().waitFor();
 
-            // Build image
-            new ProcessBuilder(
+            // Build image, following the plain progress output
+            Process build = new ProcessBuilder(
                     "docker", "buildx", "build",
                     "--platform", "linux/amd64",
+                    "--progress", "plain",
                     "-f", dockerFile.getAbsolutePath(),
-                    "-t", imageName,
+                    "-t", imageName + ":" + imageTag,
+                    "--label", ImageFingerprint.LABEL + "=" + fingerprint,
                     "--load",
                     contextDir.getAbsolutePath()
-            ).inheritIO().start().waitFor();
+            ).redirectErrorStream(true).start();
+            try (BufferedReader output = new BufferedReader(new InputStreamReader(build.getInputStream()))) {
+                String line;
+                while ((line = output.readLine()) != null) {
+                    logger.fine(line);
+                    reportBuildStep(line.replaceFirst("^#\\d+ ", ""), listener);
+                }
+            }
+            if (build.waitFor() != 0)
+                throw new IOException("docker buildx build of " + imageName + " failed");
             logger.info("Image built: " + imageName);
         } else {
-            logger.info("Image " + imageName + " already exists. Skipping build.");
+            logger.info("Image " + imageName + " is up to date. Skipping build.");
+        }
+        listener.progress(IMAGE_READY, "Starting container");
+
+        String hostSharedFolder = sharedFolder.toAbsolutePath().toString();
+        String imageId = imageDigest(imageName + ":" + imageTag);
+        if (persistentContainers) {
+            String reusable = reusableContainer(containerName, imageId, hostSharedFolder);
+            if (reusable != null) {
+                this.x3dnaContainerName = containerName;
+                keepAlive(reusable);
+                logger.info("Reattached to container " + containerName);
+                listener.progress(1, "Container ready (reattached)");
+                return;
+            }
         }
 
         // Check and remove existing container
@@ -266,21 +696,24 @@ public class DockerController {
         }
 
         // Run container with shared volume
-        new ProcessBuilder(
+        var run = new ArrayList<>(List.of(
                 "docker", "run",
                 "--platform", "linux/amd64",
                 "--name", containerName,
-                "-v", sharedFolder.toAbsolutePath() + ":/data",
-                "-dit",
-                imageName,
-                "bash"
-        ).inheritIO().start().waitFor();
+                "-v", hostSharedFolder + ":/data"));
+        containerLabels(hostSharedFolder, imageId).forEach((k, v) -> run.addAll(List.of("--label", k + "=" + v)));
+        if (persistentContainers)
+            run.addAll(List.of("--rm", "-d", imageName + ":" + imageTag,
+                    "bash", "-c", WATCHDOG, "tarnas", String.valueOf(idleMinutes * 60)));
+        else
+            run.addAll(List.of("-dit", imageName + ":" + imageTag, "bash"));
+        new ProcessBuilder(run).inheritIO().start().waitFor();
 
         logger.info("Container started with shared folder: " + containerName);
+        this.x3dnaContainerName = containerName;
+        if (persistentContainers) keepAlive(containerName);
 
-        makeDirInContainer(this.resolveContainerId(containerName), "/data/preprocessed");
-
-        return 1;
+        listener.progress(1, "Container ready");
     }
 
     /**
@@ -384,200 +817,469 @@ public class DockerController {
         }
     }
 
-    public void rnaView() throws InterruptedException {
-        String shellCmd = "mkdir -p /data/rnaview-output && "
-                + "cd /home/RNAView/bin && "
-                + "for file in " + this.preprocessingPath + "/*.pdb; do "
-                + "filename=$(basename \"$file\"); "
-                + "./rnaview \"$file\"; "
-                + "find " + this.preprocessingPath + " -maxdepth 1 -type f -name \"${filename%.*}.*\" -newer \"$file\" -exec mv {} /data/rnaview-output/ \\;; "
-                + "done";
-
-        // Create exec command
-        ExecCreateCmdResponse execCreateCmdResponse = dockerClient.execCreateCmd(container.getId()).withAttachStdout(true).withAttachStderr(true).withCmd("bash", "-c", shellCmd).exec();
-
-        // Start and attach to output
-        dockerClient.execStartCmd(execCreateCmdResponse.getId()).exec(new ExecStartResultCallback(System.out, System.err)).awaitCompletion();
-    }
-
-    public void rnapolisAnnotator() throws InterruptedException {
-        String shellCmd =
-                "mkdir -p /data/rnapolis-output && " +
-                        "for file in " + this.preprocessingPath + "/*.pdb; do " +
-                        "    filename=$(basename \"$file\"); " +
-                        "    name=\"${filename%.*}\"; " +
-                        "    annotator -e \"$file\" | sed 's/^[ \t]*//' > \"/data/rnapolis-output/${name}.3db\"; " +
-                        "done";
-
-        // Create exec command
-        ExecCreateCmdResponse execCreateCmdResponse = dockerClient.execCreateCmd(container.getId()).withAttachStdout(true).withAttachStderr(true).withCmd("bash", "-c", shellCmd).exec();
-
-        // Start and attach to output
-        dockerClient.execStartCmd(execCreateCmdResponse.getId()).exec(new ExecStartResultCallback(System.out, System.err)).awaitCompletion();
-    }
+    public ToolScheduler getToolScheduler() {
+        return this.toolScheduler;
+    }
 
-    public void baRNAba() throws InterruptedException {
-        String shellCmd =
-                "mkdir -p /data/barnaba-output && " +
-                        "for file in " + this.preprocessingPath + "/*.pdb; do " +
-                        "filename=$(basename \"$file\"); " +
-                        "name=\"${filename%.}\"; " +
-                        "./barnaba/bin/barnaba ANNOTATE --pdb \"$file\" 2> ${name}.err;" +
-                        "cat ${name}.err outfile.ANNOTATE.pairing.out > ${name}.pairing.out;" +
-                        "cat ${name}.err outfile.ANNOTATE.stacking.out >> ${name}.stacking.out;" +
-                        "mv ${name}.pairing.out \"/data/barnaba-output/${name}.ANNOTATE.pairing.out\"; " +
-                        "mv ${name}.stacking.out \"/data/barnaba-output/${name}.ANNOTATE.stacking.out\"; " +
-                        "done";
+    /**
+     * Builds the (tool x preprocessed file) job graph of all the given tools and schedules it as a
+     * single batch across the all-tools and the X3DNA containers at the same time, returning as soon
+     * as the jobs are scheduled. The listener is called from the worker threads after each job.
+     * <p>
+     * Every job is recorded in the {@link RunJournal} of the shared folder. When resuming, the jobs
+     * already done on the same input are skipped, and counted as succeeded.
+     */
+    public JobHandle submitTools(Collection<TOOL> tools, ToolScheduler.JobListener listener) throws IOException {
+        var jobs = new ArrayList<ToolJob>();
+        var journal = RunJournal.fromSystemProperties(sharedFolder);
+        var runner = jobRunner(tools, journal);
+        for (TOOL tool : tools) {
+            // inputs missing in the tool format are generated by the job itself, see ensureInput
+            for (String stem : listPreprocessedStems())
+                jobs.add(new ToolJob(tool, toolInput(tool, stem)));
+        }
+        if (this.retryFailedOnly && journal != null) {
+            jobs.removeIf(job -> !journal.hasFailed(job));
+            logger.info("Retrying the " + jobs.size() + " jobs that failed in the previous runs");
+        }
+        ToolScheduler.JobListener evictWhenDone = (job, report) -> {
+            listener.jobFinished(job, report);
+            if (report.getSucceeded() + report.getFailed() == report.getTotal())
+                evictResultCache();
+        };
+        return this.toolScheduler.submit(jobs, runner, evictWhenDone);
+    }
 
-        // Create exec command
-        ExecCreateCmdResponse execCreateCmdResponse = dockerClient.execCreateCmd(container.getId()).withAttachStdout(true).withAttachStderr(true).withCmd("bash", "-c", shellCmd).exec();
+    /**
+     * Streaming mode: preprocesses the CSV of the shared folder and runs the tools on every chain
+     * file as soon as it is written, so that annotation overlaps preprocessing. Each tool queues at
+     * most tarnas.pipeline.queue (default 64) chains beyond its running jobs; beyond that, the
+     * preprocessing waits for the tools. Once the handle is cancelled, the preprocessing stops at
+     * the next chain written.
+     *
+     * @param opened receives the handle of the tool jobs as soon as the first one can be scheduled,
+     *               e.g. to cancel them while the CSV is still being preprocessed
+     * @return the handle of the tool jobs, which are all scheduled once this returns
+     */
+    public JobHandle preprocessAndSubmitTools(Collection<TOOL> tools, ProgressListener listener, ToolScheduler.JobListener jobListener,
+                                              Consumer<JobHandle> opened) throws IOException, InterruptedException {
+        var journal = RunJournal.fromSystemProperties(sharedFolder);
+        var runner = jobRunner(tools, journal);
+        var stream = new ToolScheduler.JobStream[1];
+        ToolScheduler.JobListener evictWhenDone = (job, report) -> {
+            jobListener.jobFinished(job, report);
+            if (stream[0].isClosed() && report.getSucceeded() + report.getFailed() == report.getTotal())
+                evictResultCache();
+        };
+        stream[0] = this.toolScheduler.open(tools, Integer.getInteger("tarnas.pipeline.queue", 64), runner, evictWhenDone);
+        opened.accept(stream[0].getHandle());
+
+        // a chain written twice (e.g. by overlapping CSV rows) is annotated once
+        var published = ConcurrentHashMap.<String>newKeySet();
+        this.chainSink = stem -> {
+            if (!published.add(stem)) return;
+            // once the run is cancelled, add stops the preprocessing of the remaining rows
+            for (TOOL tool : tools)
+                stream[0].add(new ToolJob(tool, toolInput(tool, stem)));
+        };
+        try {
+            preprocessCsv(listener);
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            stream[0].getHandle().cancel();
+            throw e;
+        } finally {
+            this.chainSink = null;
+            stream[0].close();
+        }
+        logger.info("Preprocessing done, " + published.size() + " chains streamed to the tools");
+        var handle = stream[0].getHandle();
+        if (handle.getCompleted() == handle.getTotal())
+            evictResultCache();
+        return handle;
+    }
 
-        // Start and attach to output
-        dockerClient.execStartCmd(execCreateCmdResponse.getId()).exec(new ExecStartResultCallback(System.out, System.err)).awaitCompletion();
+    /**
+     * Runs the jobs of the tools through the result cache and the journal.
+     */
+    private ToolScheduler.JobRunner jobRunner(Collection<TOOL> tools, RunJournal journal) throws IOException {
+        var executor = this.getToolExecutor();
+        // looked up by the first job of each tool, once its container is up
+        var fingerprints = new ConcurrentHashMap<TOOL, Optional<String>>();
+        if (this.containerStartup != null) this.containerStartup.retryFailed();
+        for (TOOL tool : tools)
+            Files.createDirectories(sharedFolder.resolve(tool.getOutputFolder()));
+        return job -> runJournaledJob(executor, job, fingerprints, journal);
     }
 
-    public void bpnet() throws InterruptedException {
-        String shellCmd = "mkdir -p /data/bpnet-output && "
-                + "cd /home/bpnet/bin && " +
-                "for file in " + this.preprocessingPath + "/*.pdb; do " +
-                "  filename=$(basename \"$file\"); " +
-                "  prefix=\"${filename%.*}\"; " +
-                "  ./bpnet.linux \"$file\"; " +
-                "  for output in " + this.preprocessingPath + "/${prefix}*; do " +
-                "    [ \"$output\" = \"$file\" ] && continue; " +  // skip the input file
-                "    outname=$(basename \"$output\"); " +
-                "    mv \"$output\" \"/data/bpnet-output/${prefix}.$outname\"; " +
-                "  done; " +
-                "done";
+    @FunctionalInterface
+    private interface ChainSink {
+        void written(String stem) throws InterruptedException;
+    }
 
+    /**
+     * Hands a chain file just written by the preprocessing to the tools, in streaming mode.
+     */
+    private void publishChain(Path dst) throws InterruptedException {
+        var sink = this.chainSink;
+        if (sink != null)
+            sink.written(dst.getFileName().toString());
+    }
 
-        // Create exec command
-        ExecCreateCmdResponse execCreateCmdResponse = dockerClient.execCreateCmd(container.getId()).withAttachStdout(true).withAttachStderr(true).withCmd("bash", "-c", shellCmd).exec();
+    /**
+     * Backend running the tools: the containers themselves, unless set otherwise.
+     */
+    public ToolExecutor getToolExecutor() {
+        var executor = this.toolExecutor;
+        return executor != null ? executor : this;
+    }
 
-        // Start and attach to output
-        dockerClient.execStartCmd(execCreateCmdResponse.getId()).exec(new ExecStartResultCallback(System.out, System.err)).awaitCompletion();
+    /**
+     * Sets the backend running the tools; null runs them in the containers.
+     */
+    public void setToolExecutor(ToolExecutor toolExecutor) {
+        this.toolExecutor = toolExecutor;
     }
 
-    public void fr3d() throws InterruptedException {
-        String shellCmd =
-                "cd /home/fr3d-python/fr3d/classifiers/ && " +
-                        "for file in " + this.preprocessingPath + "/*.cif; do " +
-                        "filename=$(basename \"$file\" .cif); " +
-                        "python NA_pairwise_interactions.py -o /data/fr3d-output/ -f ebi_json --input " + this.preprocessingPath + " ${filename}.cif; " +
-                      //  "mv /data/fr3d-output/${filename}_*_basepair.json /data/fr3d-output/${filename}_basepair.json; " +
-                        "done";
+    /**
+     * Sets the cache of tool outputs; null disables it.
+     */
+    public void setResultCache(ToolResultCache resultCache) {
+        this.resultCache = resultCache;
+    }
 
-        // Create exec command
-        ExecCreateCmdResponse execCreateCmdResponse = dockerClient.execCreateCmd(container.getId()).withAttachStdout(true).withAttachStderr(true).withCmd("bash", "-c", shellCmd).exec();
+    /**
+     * Whether jobs already done on the same input are skipped (the default), see {@link RunJournal}.
+     */
+    public void setResume(boolean resume) {
+        this.resume = resume;
+    }
 
-        // Start and attach to output
-        dockerClient.execStartCmd(execCreateCmdResponse.getId()).exec(new ExecStartResultCallback(System.out, System.err)).awaitCompletion();
+    public boolean isResume() {
+        return this.resume;
     }
 
-    public void x3dnaBy(String containerName) throws InterruptedException, IOException {
-        String shellCmd =
-                "set -e; cd /data; mkdir -p x3dna-output; mkdir -p x3dna-tmp; cd x3dna-tmp;" +
-                        "for file in " + this.preprocessingPath + "/*.pdb; do " +
-                        "  filename=$(basename \"$file\"); " +
-                        "  prefix=\"${filename%.*}\"; " +
-                        // EXAMPLE x3dna-dssr -i=/data/1YMO.pdb --pair-only --json -o=ex.json
-                        "  x3dna-dssr -i=\"$file\" --pair-only --json -o=\"${prefix}_dssr.json\"; " +
-                        "  mv \"${prefix}_dssr.json\" /data/x3dna-output/; " +
-                        "done; " +
-                "cd ..; rm -rf x3dna-tmp";
-
-        new ProcessBuilder("docker", "exec", containerName, "bash", "-c", shellCmd)
-                .inheritIO().start().waitFor();
+    /**
+     * Whether the next runs only retry the jobs whose last run failed, according to the journal.
+     */
+    public void setRetryFailedOnly(boolean retryFailedOnly) {
+        this.retryFailedOnly = retryFailedOnly;
     }
 
-    public void mcAnnotate() throws InterruptedException {
-        String shellCmd =
-                "mkdir -p /data/mc-annotate-output && " +
-                        "for file in " + this.preprocessingPath + "/*.pdb; do " +
-                        "filename=$(basename \"$file\"); " +
-                        "/home/MC-Annotate/MC-Annotate \"$file\" > /data/mc-annotate-output/${filename%.*}.txt; " +
-                        "done";
-        // Create exec command
-        ExecCreateCmdResponse execCreateCmdResponse = dockerClient.execCreateCmd(container.getId()).withAttachStdout(true).withAttachStderr(true).withCmd("bash", "-c", shellCmd).exec();
-        // Start and attach to output
-        dockerClient.execStartCmd(execCreateCmdResponse.getId()).exec(new ExecStartResultCallback(System.out, System.err)).awaitCompletion();
-    }
-
-    public void beem(String cifFile) throws InterruptedException {
-        logger.info("USING BeEM to convert " + cifFile + " to PDB");
-        // call BeEM
-        String shellCmd = "cd /data && /home/BeEM/BeEM" + " " + cifFile;
+    /**
+     * Runs the job unless the journal records it as done on the same input with the same tool image,
+     * and journals the outcome. Cancelled jobs are not journaled, so they run again on resume.
+     * The input is generated and hashed here once, for both the journal and the result cache.
+     */
+    private List<Path> runJournaledJob(ToolExecutor executor, ToolJob job, Map<TOOL, Optional<String>> fingerprints, RunJournal journal) throws IOException, InterruptedException {
+        ensureInput(job.input());
+        if (executor == this)
+            ensureContainer(job.tool());
+        var fingerprint = fingerprints.computeIfAbsent(job.tool(), tool -> Optional.ofNullable(executor.fingerprint(tool))).orElse(null);
+        var cached = this.resultCache != null && fingerprint != null;
+        var checksum = journal != null || cached ? Sha256.of(job.input()) : null;
+        if (journal == null)
+            return runCachedJob(executor, job, checksum, fingerprint);
+        if (this.resume && journal.isDone(job, checksum, fingerprint, sharedFolder.resolve(job.tool().getOutputFolder()))) {
+            logger.info("Already done, skipping " + job);
+            return List.of();
+        }
+        List<Path> outputs;
+        try {
+            outputs = runCachedJob(executor, job, checksum, fingerprint);
+        } catch (IOException | RuntimeException e) {
+            journalQuietly(() -> journal.recordFailure(job, checksum, fingerprint, e));
+            throw e;
+        }
+        journalQuietly(() -> journal.recordDone(job, checksum, fingerprint, outputs));
+        return outputs;
+    }
 
-        // Create exec command
-        ExecCreateCmdResponse execCreateCmdResponse = dockerClient.execCreateCmd(container.getId()).withAttachStdout(true).withAttachStderr(true).withCmd("bash", "-c", shellCmd).exec();
+    private interface JournalWrite {
+        void write() throws IOException;
+    }
 
-        // Start and attach to output
-        dockerClient.execStartCmd(execCreateCmdResponse.getId()).exec(new ExecStartResultCallback(System.out, System.err)).awaitCompletion();
-        //this.buildMappingsCSV();
+    private static void journalQuietly(JournalWrite write) {
+        try {
+            write.write();
+        } catch (IOException e) {
+            logger.severe("Could not write the run journal: " + e);
+        }
     }
-
-
-    /**
-     * Takes the PDB ID related to the CIF file and saves mappings and bundles under mappingsPath and bundlesPath.
+
+    /**
+     * Restores the outputs of the job from the result cache if the same input was already
+     * processed by the same tool version, otherwise runs the job and caches its outputs.
      *
-     * @param pdbID
+     * @param checksum    SHA-256 of the input, which exists already
+     * @param fingerprint of the tool, null if it cannot be cached
      */
-    private void moveFiles(String pdbID) throws Exception {
-        var originalMappingPath = sharedFolder.resolve(pdbID.toLowerCase() + "-chain-id-mapping.txt");
-        var formattedMappingPath = originalMappingPath.getParent().resolve(pdbID + "-pdb-mapping.csv");
-        // reformat mapping
-        var bundles = reformatCSV(originalMappingPath, formattedMappingPath);
-        // move bundles using mapping
-        for (var b : bundles) {
-            var target = sharedFolder.resolve("bundles").resolve(b.getFileName());
-            Files.move(b, target, StandardCopyOption.REPLACE_EXISTING);
+    private List<Path> runCachedJob(ToolExecutor executor, ToolJob job, String checksum, String fingerprint) throws IOException, InterruptedException {
+        var cache = this.resultCache;
+        if (cache == null || fingerprint == null)
+            return runJob(executor, job);
+
+        var key = cache.key(checksum, job.input(), job.tool(), fingerprint);
+        var restored = cache.restore(key, sharedFolder.resolve(job.tool().getOutputFolder()));
+        if (restored != null) {
+            logger.info("Cache hit for " + job);
+            return restored;
+        }
+        var outputs = runJob(executor, job);
+        try {
+            cache.store(key, outputs);
+        } catch (IOException e) {
+            logger.severe("Could not cache the outputs of " + job + ": " + e);
         }
-        // move mapping
-        Files.move(formattedMappingPath, sharedFolder.resolve("mappings").resolve(formattedMappingPath.getFileName()), StandardCopyOption.REPLACE_EXISTING);
+        return outputs;
     }
 
-    private Set<Path> reformatCSV(Path inputPath, Path outputPath) {
-        try (BufferedReader reader = Files.newBufferedReader(inputPath);
-             BufferedWriter writer = Files.newBufferedWriter(outputPath)) {
+    private void evictResultCache() {
+        var cache = this.resultCache;
+        if (cache == null) return;
+        try {
+            cache.evict();
+        } catch (IOException e) {
+            logger.severe("Cache eviction failed: " + e);
+        }
+    }
 
-            writer.write("File,New_chain_ID,Original_chain_ID");
-            writer.newLine();
+    /**
+     * Id (sha256 digest) of the image the tool runs in.
+     */
+    @Override
+    public String fingerprint(TOOL tool) {
+        return imageDigest(tool == X3DNA ? this.x3dnaImageName : this.toolsImageName);
+    }
 
-            String currentFile = null;
-            var bundlePaths = new HashSet<Path>();
-            String line;
+    /**
+     * Id (sha256 digest) of a local image, or null if it cannot be inspected.
+     */
+    private String imageDigest(String imageName) {
+        if (imageName == null) return null;
+        try {
+            return dockerClient.inspectImageCmd(imageName).exec().getId();
+        } catch (Exception e) {
+            logger.severe("Cannot inspect image " + imageName + ", results will not be cached: " + e.getMessage());
+            return null;
+        }
+    }
 
-            while ((line = reader.readLine()) != null) {
-                line = line.trim();
+    /**
+     * Names (without extension) of the chain files in the preprocessed folder, whatever their format.
+     */
+    private List<String> listPreprocessedStems() throws IOException {
+        var stems = new TreeSet<String>();
+        var preprocessedFolder = sharedFolder.resolve("preprocessed");
+        if (!Files.isDirectory(preprocessedFolder)) return List.of();
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(preprocessedFolder)) {
+            for (Path p : ds) {
+                var name = p.getFileName().toString();
+                for (FORMAT format : FORMAT.values())
+                    if (name.endsWith("." + format.getExtension()))
+                        stems.add(name.substring(0, name.length() - format.getExtension().length() - 1));
+            }
+        }
+        return new ArrayList<>(stems);
+    }
 
-                // Skip header and empty lines
-                if (line.isEmpty() || line.contains("New chain ID")) {
-                    continue;
-                }
+    private Path preprocessedFile(String stem, FORMAT format) {
+        return sharedFolder.resolve("preprocessed").resolve(stem + "." + format.getExtension());
+    }
 
-                // Detect new PDB section (e.g., "3j6b-pdb-bundle1.pdb:")
-                if (line.contains(".pdb:")) {
-                    currentFile = line.substring(0, line.length() - 1).trim();
-                    bundlePaths.add(inputPath.getParent().resolve(currentFile));
-                    continue;
-                }
+    /**
+     * Chain file the tool runs on: the one in its input format, or else the mmCIF one if the tool
+     * reads mmCIF too, instead of converting it.
+     */
+    private Path toolInput(TOOL tool, String stem) {
+        var input = preprocessedFile(stem, tool.getInputFormat());
+        var cif = preprocessedFile(stem, FORMAT.CIF);
+        if (!Files.exists(input) && tool.readsCif() && Files.exists(cif)) return cif;
+        return input;
+    }
 
-                // Expect two columns separated by spaces
-                String[] parts = line.split("\\s+");
-                if (parts.length == 2) {
-                    writer.write(String.format("%s,%s,%s", currentFile, parts[0], parts[1]));
-                    writer.newLine();
+    /**
+     * Generates a preprocessed chain file the first time a tool asks for it, converting it from the
+     * same chain saved in another format (preprocessing only writes the formats of the planned tools).
+     */
+    private void ensureInput(Path input) throws IOException {
+        if (Files.exists(input)) return;
+        synchronized (conversionLocks.computeIfAbsent(input, k -> new Object())) {
+            if (Files.exists(input)) return;
+            var name = input.getFileName().toString();
+            var stem = name.substring(0, name.lastIndexOf('.'));
+            for (FORMAT format : FORMAT.values()) {
+                var source = input.resolveSibling(stem + "." + format.getExtension());
+                if (Files.exists(source)) {
+                    bioJavaController.convert(source, input);
+                    logger.info("Generated " + name + " from " + source.getFileName());
+                    return;
                 }
             }
+            throw new FileNotFoundException("No preprocessed file to generate " + input);
+        }
+    }
 
-            Files.delete(inputPath);
+    /**
+     * Tools that will be run on the preprocessed files: only the input formats they read are written
+     * during preprocessing. With no planned tool, every format is written. If every planned tool reads
+     * mmCIF, entries only available as mmCIF skip the PDB bundles: their chains are written as mmCIF,
+     * named after the original chain IDs (tarnas.preprocessing.cifNative=false disables this).
+     */
+    public void setPlannedTools(Collection<TOOL> tools) {
+        var formats = EnumSet.noneOf(FORMAT.class);
+        tools.forEach(tool -> formats.add(tool.getInputFormat()));
+        this.preprocessingFormats = formats.isEmpty() ? EnumSet.allOf(FORMAT.class) : formats;
+        this.cifNativePreprocessing = !tools.isEmpty() && tools.stream().allMatch(TOOL::readsCif)
+                && Boolean.parseBoolean(System.getProperty("tarnas.preprocessing.cifNative", "true"));
+        logger.info("Preprocessing formats: " + this.preprocessingFormats
+                + (this.cifNativePreprocessing ? ", mmCIF entries split natively" : ""));
+    }
 
-            System.out.println("Reformatted CSV written to: " + outputPath.toAbsolutePath());
-            System.out.println("Deleted original mapping: " + inputPath.toAbsolutePath());
-            return bundlePaths;
-        } catch (IOException e) {
-            System.err.println("Error processing " + inputPath + ": " + e.getMessage());
-            return null;
+    /**
+     * Runs one tool on one preprocessed file. Each job works inside its own scratch directory
+     * (shared/scratch/&lt;tool&gt;/&lt;file&gt;) so that tools writing fixed file names, or writing next to
+     * their input, never collide with concurrent jobs. The tool writes its results into the
+     * out/ subdirectory of the scratch, which are then moved into the tool output folder.
+     *
+     * @return the host paths of the collected output files
+     */
+    public List<Path> runJob(ToolJob job) throws IOException, InterruptedException {
+        return runJob(this.getToolExecutor(), job);
+    }
+
+    private List<Path> runJob(ToolExecutor executor, ToolJob job) throws IOException, InterruptedException {
+        var scratch = sharedFolder.resolve("scratch")
+                .resolve(job.tool().getName().toLowerCase(Locale.ROOT))
+                .resolve(job.stem());
+        deleteDirectoryRecursively(scratch);
+        // created from the host so that the host user can clean it afterwards
+        Files.createDirectories(scratch.resolve("out"));
+        try {
+            // setsid makes the job its own process group, recorded in job.pid so that it can be killed on cancel
+            String[] cmd = {"setsid", "bash", "-c", "echo $$ > \"$2/job.pid\"; " + toolScript(job.tool()), "tarnas",
+                    executor.toToolPath(job.input()), executor.toToolPath(scratch)};
+            int exitCode;
+            try {
+                exitCode = executor.execute(job.tool(), cmd);
+            } catch (InterruptedException e) {
+                killJob(executor, job, scratch.resolve("job.pid"));
+                throw e;
+            }
+
+            var outputs = new ArrayList<Path>();
+            var outputFolder = sharedFolder.resolve(job.tool().getOutputFolder());
+            try (DirectoryStream<Path> ds = Files.newDirectoryStream(scratch.resolve("out"))) {
+                for (Path p : ds)
+                    outputs.add(Files.move(p, outputFolder.resolve(p.getFileName()), StandardCopyOption.REPLACE_EXISTING));
+            }
+            if (exitCode != 0)
+                throw new IOException(job + " exited with code " + exitCode);
+            return outputs;
+        } finally {
+            deleteDirectoryRecursively(scratch);
+        }
+    }
+
+    /**
+     * Stops a job whose thread was interrupted: ending the exec client does not stop the
+     * process inside the container, so its whole process group is killed.
+     */
+    private void killJob(ToolExecutor executor, ToolJob job, Path pidFile) {
+        try {
+            if (!Files.exists(pidFile)) return;
+            var pid = Files.readString(pidFile).trim();
+            String[] kill = {"kill", "-TERM", "--", "-" + pid};
+            executor.execute(job.tool(), kill);
+            logger.info("Killed " + job);
+        } catch (Exception e) {
+            logger.severe("Could not kill " + job + ": " + e);
+        }
+    }
+
+    /**
+     * Per-file shell script of each tool. Arguments: $1 = input file, $2 = job scratch directory.
+     * Results must be written into $2/out. Tools installed under /home in the images are looked up
+     * under $TARNAS_TOOLS_HOME when set (see {@link LocalToolExecutor}).
+     */
+    private static final String TOOLS_HOME = "${TARNAS_TOOLS_HOME:-/home}";
+
+    private static String toolScript(TOOL tool) {
+        return switch (tool) {
+            case RNAVIEW -> "n=$(basename \"$1\"); "
+                    + "cp \"$1\" \"$2/$n\" && cd \"$2\" && \"" + TOOLS_HOME + "/RNAView/bin/rnaview\" \"$n\"; rc=$?; "
+                    + "find \"$2\" -maxdepth 1 -type f -name \"${n%.*}.*\" ! -name \"$n\" -exec mv {} \"$2/out/\" \\;; "
+                    + "exit $rc";
+            case RNAPOLIS_ANNOTATOR -> "set -o pipefail; n=$(basename \"$1\"); "
+                    + "annotator -e \"$1\" | sed 's/^[ \t]*//' > \"$2/out/${n%.*}.3db\"";
+            case BARNABA -> "n=$(basename \"$1\"); cd \"$2\" && "
+                    + "\"" + TOOLS_HOME + "/barnaba/bin/barnaba\" ANNOTATE --pdb \"$1\" 2> \"$n.err\"; rc=$?; "
+                    + "cat \"$n.err\" outfile.ANNOTATE.pairing.out > \"out/$n.ANNOTATE.pairing.out\"; "
+                    + "cat \"$n.err\" outfile.ANNOTATE.stacking.out > \"out/$n.ANNOTATE.stacking.out\"; "
+                    + "exit $rc";
+            case BPNET -> "n=$(basename \"$1\"); p=\"${n%.*}\"; "
+                    + "cp \"$1\" \"$2/$n\" && cd \"" + TOOLS_HOME + "/bpnet/bin\" && ./bpnet.linux \"$2/$n\"; rc=$?; "
+                    + "for o in \"$2\"/\"$p\"*; do "
+                    + "  [ -f \"$o\" ] || continue; [ \"$o\" = \"$2/$n\" ] && continue; "
+                    + "  mv \"$o\" \"$2/out/$p.$(basename \"$o\")\"; "
+                    + "done; exit $rc";
+            case FR3D -> "n=$(basename \"$1\"); cd \"" + TOOLS_HOME + "/fr3d-python/fr3d/classifiers/\" && "
+                    + "python NA_pairwise_interactions.py -o \"$2/out/\" -f ebi_json --input \"$(dirname \"$1\")\" \"$n\"";
+            case X3DNA -> "n=$(basename \"$1\"); cd \"$2\" && "
+                    // EXAMPLE x3dna-dssr -i=/data/1YMO.pdb --pair-only --json -o=ex.json
+                    + "x3dna-dssr -i=\"$1\" --pair-only --json -o=\"out/${n%.*}_dssr.json\"";
+            case MC_ANNOTATE -> "n=$(basename \"$1\"); "
+                    + "\"" + TOOLS_HOME + "/MC-Annotate/MC-Annotate\" \"$1\" > \"$2/out/${n%.*}.txt\"";
+        };
+    }
+
+    /**
+     * Maps a host path inside the shared folder to its path in the containers (/data/...).
+     */
+    @Override
+    public String toToolPath(Path hostPath) {
+        var relative = sharedFolder.toAbsolutePath().relativize(hostPath.toAbsolutePath());
+        var containerPath = new StringBuilder("/data");
+        for (Path part : relative)
+            containerPath.append('/').append(part);
+        return containerPath.toString();
+    }
+
+    /**
+     * Runs the command in the X3DNA container for X3DNA, in the all-tools container otherwise.
+     */
+    @Override
+    public int execute(TOOL tool, String... cmd) throws IOException, InterruptedException {
+        return tool == X3DNA
+                ? execInContainerByCli(this.x3dnaContainerName, cmd)
+                : execInContainer(this.toolsContainerId, cmd);
+    }
+
+    private int execInContainer(String containerId, String... cmd) throws InterruptedException {
+        ExecCreateCmdResponse execCreateCmdResponse = dockerClient.execCreateCmd(containerId).withAttachStdout(true).withAttachStderr(true).withCmd(cmd).exec();
+        var callback = dockerClient.execStartCmd(execCreateCmdResponse.getId()).exec(new ExecStartResultCallback(System.out, System.err));
+        try {
+            callback.awaitCompletion();
+        } catch (InterruptedException e) {
+            try {
+                callback.close();
+            } catch (IOException ignored) {
+                // the exec is being abandoned anyway
+            }
+            throw e;
+        }
+        Long exitCode = dockerClient.inspectExecCmd(execCreateCmdResponse.getId()).exec().getExitCodeLong();
+        return exitCode == null ? -1 : exitCode.intValue();
+    }
+
+    private int execInContainerByCli(String containerName, String... cmd) throws InterruptedException, IOException {
+        var command = new ArrayList<>(List.of("docker", "exec", containerName));
+        command.addAll(List.of(cmd));
+        var process = new ProcessBuilder(command).inheritIO().start();
+        try {
+            return process.waitFor();
+        } catch (InterruptedException e) {
+            process.destroy();
+            throw e;
         }
     }
 
@@ -587,7 +1289,25 @@ public class DockerController {
     }
 
 
+    /**
+     * Writes the selected RNA chains of a PDB file. When PDB chain files are needed, they are split
+     * as text by a {@link PdbChainSplitter}, and mmCIF ones are converted only if a tool asks for them
+     * (see ensureInput); BioJava parses the file only for mmCIF-only output or files the splitter
+     * cannot handle (tarnas.preprocessing.streaming=false always uses BioJava).
+     */
     private void filterPDB(String chain, String pdbID, Path preprocessedFolder, Path src) throws Exception {
+        if (streamingSplit && preprocessingFormats.contains(FORMAT.PDB)) {
+            var written = pdbChainSplitter.get().split(src, chain, preprocessedFolder, pdbID);
+            if (written != null) {
+                for (var chainId : written) {
+                    var dst = preprocessedFolder.resolve(pdbID + "_" + chainId);
+                    logger.info("Wrote filtered PDB: " + dst);
+                    publishChain(dst);
+                }
+                return;
+            }
+            logger.info("Falling back to BioJava for " + src.getFileName());
+        }
         var filteredFiles = chain.equals("*")
                 ? bioJavaController.filterByStar(src)
                 : bioJavaController.filterById(src, chain);
@@ -597,49 +1317,53 @@ public class DockerController {
         }
     }
 
-    private void filterCIF(String chain, String pdbID, Path preprocessedFolder) throws Exception {
-        var mapping = sharedFolder.resolve("mappings").resolve(pdbID + "-pdb-mapping.csv");
-        var bundles = sharedFolder.resolve("bundles");
-
-        try (Reader reader = Files.newBufferedReader(mapping)) {
-            var format = CSVFormat.DEFAULT.builder()
-                    .setHeader()
-                    .setSkipHeaderRecord(true)
-                    .build();
-
-            var records = format.parse(reader);
-
-            var newChainIds = new HashMap<String, String>();
-            var originalChainIds = new HashMap<String, String>();
-
-            for (var r : records) {
-                var file = r.get("File");
-                var newChainId = r.get("New_chain_ID");
-                var originalChainId = r.get("Original_chain_ID");
-
-                // skip rows not matching the specified chain (unless '*' is used)
-                if (!chain.equals("*") && !chain.contains(originalChainId)) {
-                    continue;
-                }
-
-                // append newChainId with semicolon
-                newChainIds.merge(file, newChainId, (oldVal, newVal) -> oldVal + ";" + newVal);
+    private void filterCIF(String chain, String pdbID, Path preprocessedFolder, List<CifBundleSplitter.BundleChain> chains) throws Exception {
+        var allowed = chain.equals("*") ? null : Set.of(chain.split(";"));
 
-                // store mapping from new to original chain
-                originalChainIds.put(newChainId, originalChainId);
+        // chains to keep, by bundle; new chain IDs are only unique within their bundle
+        var originalChainIds = new LinkedHashMap<Path, Map<String, String>>();
+        for (var c : chains) {
+            // skip chains not matching the specified ones (unless '*' is used)
+            if (allowed != null && !allowed.contains(c.originalChainId())) {
+                continue;
             }
+            originalChainIds.computeIfAbsent(c.bundle(), b -> new HashMap<>()).put(c.newChainId(), c.originalChainId());
+        }
 
-            // Process each file
-            for (var entry : newChainIds.entrySet()) {
-                var bundle = entry.getKey();
-                var newChains = entry.getValue();
+        // Process each bundle
+        for (var entry : originalChainIds.entrySet()) {
+            var filteredFiles = bioJavaController.filterById(entry.getKey(), String.join(";", entry.getValue().keySet()));
 
-                var filteredFiles = bioJavaController.filterById(bundles.resolve(bundle), newChains);
+            for (var f : filteredFiles) {
+                save(f, preprocessedFolder, pdbID, entry.getValue());
+            }
+        }
+    }
 
-                for (var f : filteredFiles) {
-                    save(f, preprocessedFolder, pdbID, originalChainIds);
+    /**
+     * Splits the chains straight from the mmCIF entry into &lt;pdbID&gt;_&lt;original chain&gt;.cif files,
+     * with no bundle and no chain renaming. The atom_site table is streamed by a {@link CifChainSplitter};
+     * BioJava parses the entry only if the splitter cannot handle it, or if
+     * tarnas.preprocessing.streaming=false.
+     */
+    private void filterCifNative(String chain, String pdbID, Path preprocessedFolder, Path src) throws Exception {
+        if (streamingSplit) {
+            var written = cifChainSplitter.split(src, chain, preprocessedFolder, pdbID);
+            if (written != null) {
+                for (var chainId : written) {
+                    var dst = preprocessedFolder.resolve(pdbID + "_" + chainId);
+                    logger.info("Wrote filtered CIF: " + dst);
+                    publishChain(dst);
                 }
+                return;
             }
+            logger.info("Falling back to BioJava for " + src.getFileName());
+        }
+        for (var entry : bioJavaController.filterCifByAuthorId(src, chain).entrySet()) {
+            var dst = preprocessedFolder.resolve(pdbID + "_" + entry.getKey());
+            bioJavaController.save(entry.getValue(), dst, EnumSet.of(FORMAT.CIF));
+            logger.info("Wrote filtered CIF: " + dst);
+            publishChain(dst);
         }
     }
 
@@ -650,8 +1374,9 @@ public class DockerController {
         var dst = preprocessedFolder.resolve(pdbID
                 + "_"
                 + chainId);
-        bioJavaController.save(f, dst);
-        logger.info("Wrote filtered PDB and CIF: " + dst);
+        bioJavaController.save(f, dst, preprocessingFormats);
+        logger.info("Wrote filtered " + preprocessingFormats + ": " + dst);
+        publishChain(dst);
     }
 
     private void save(Structure f, Path preprocessedFolder, String pdbID, Map<String, String> originalChainIds) throws Exception {
@@ -664,8 +1389,9 @@ public class DockerController {
                 + originalChainId
                 + "_"
                 + newChainId);
-        bioJavaController.save(f, dst);
-        logger.info("Wrote filtered PDB and CIF: " + dst);
+        bioJavaController.save(f, dst, preprocessingFormats);
+        logger.info("Wrote filtered " + preprocessingFormats + ": " + dst);
+        publishChain(dst);
     }
 
     private void deleteDirectoryRecursively(Path dir) throws IOException {
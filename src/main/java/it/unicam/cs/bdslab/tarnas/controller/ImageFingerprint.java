@@ -0,0 +1,70 @@
+package it.unicam.cs.bdslab.tarnas.controller;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Fingerprint of a Docker build context: the SHA-256 of the relative path and content of every
+ * file of the context (Dockerfile included), in name order. Files excluded by the .dockerignore
+ * globs are skipped, as they do not reach the build.
+ * <p>
+ * The fingerprint is stored in the {@link #LABEL} label of the built image, so that an image is
+ * rebuilt only when its context changes.
+ */
+public final class ImageFingerprint {
+
+    public static final String LABEL = "it.unicam.cs.bdslab.tarnas.context";
+
+    private ImageFingerprint() {
+    }
+
+    /**
+     * Fingerprint of the context directory, plus the Dockerfile if it lives outside of it.
+     */
+    public static String of(Path contextDir, Path dockerfile) throws IOException {
+        var context = contextDir.toAbsolutePath().normalize();
+        var ignored = dockerIgnore(context);
+        List<Path> files;
+        try (Stream<Path> paths = Files.walk(context)) {
+            files = paths.filter(Files::isRegularFile)
+                    .filter(p -> ignored.stream().noneMatch(m -> m.matches(context.relativize(p))))
+                    .sorted()
+                    .toList();
+        }
+        var digest = Sha256.digest();
+        var all = new ArrayList<>(files);
+        if (dockerfile != null && !dockerfile.toAbsolutePath().normalize().startsWith(context))
+            all.add(dockerfile.toAbsolutePath().normalize());
+        for (Path file : all) {
+            var name = file.startsWith(context) ? context.relativize(file).toString() : file.getFileName().toString();
+            digest.update(name.replace('\\', '/').getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            Sha256.update(digest, file);
+            digest.update((byte) 0);
+        }
+        return Sha256.hex(digest);
+    }
+
+    private static List<PathMatcher> dockerIgnore(Path context) throws IOException {
+        var ignoreFile = context.resolve(".dockerignore");
+        var matchers = new ArrayList<PathMatcher>();
+        if (!Files.isRegularFile(ignoreFile)) return matchers;
+        for (String line : Files.readAllLines(ignoreFile)) {
+            var pattern = line.trim();
+            // negated patterns are not supported
+            if (pattern.isEmpty() || pattern.startsWith("#") || pattern.startsWith("!")) continue;
+            if (pattern.startsWith("/")) pattern = pattern.substring(1);
+            var fs = FileSystems.getDefault();
+            matchers.add(fs.getPathMatcher("glob:" + pattern));
+            matchers.add(fs.getPathMatcher("glob:" + pattern + "/**"));
+        }
+        return matchers;
+    }
+}
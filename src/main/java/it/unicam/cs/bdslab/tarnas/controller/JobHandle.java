@@ -0,0 +1,74 @@
+package it.unicam.cs.bdslab.tarnas.controller;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Handle of a batch of tool jobs submitted to the {@link ToolScheduler}.
+ * The batch runs in the background; the handle exposes its progress, lets the caller cancel it
+ * and wait for its {@link RunReport}.
+ */
+public class JobHandle {
+
+    private final RunReport report;
+    private final List<ExecutorService> pools = new ArrayList<>();
+    private volatile boolean cancelled;
+
+    JobHandle(RunReport report) {
+        this.report = report;
+    }
+
+    void addPool(ExecutorService pool) {
+        this.pools.add(pool);
+    }
+
+    /**
+     * Live status of the batch; counters grow while jobs complete.
+     */
+    public RunReport getReport() {
+        return this.report;
+    }
+
+    public int getTotal() {
+        return this.report.getTotal();
+    }
+
+    /**
+     * Number of jobs that finished, successfully or not.
+     */
+    public int getCompleted() {
+        return this.report.getSucceeded() + this.report.getFailed();
+    }
+
+    public boolean isCancelled() {
+        return this.cancelled;
+    }
+
+    public boolean isDone() {
+        return this.pools.stream().allMatch(ExecutorService::isTerminated);
+    }
+
+    /**
+     * Drops the jobs not started yet and interrupts the running ones, which stop their tool process.
+     */
+    public void cancel() {
+        if (this.cancelled) return;
+        this.cancelled = true;
+        this.report.markCancelled();
+        this.pools.forEach(ExecutorService::shutdownNow);
+        ToolScheduler.logger.info("Run cancelled after " + getCompleted() + "/" + getTotal() + " jobs");
+    }
+
+    /**
+     * Waits until every job has finished or, after a cancellation, has been stopped.
+     */
+    public RunReport await() throws InterruptedException {
+        for (var pool : this.pools)
+            while (!pool.awaitTermination(1, TimeUnit.HOURS)) {
+                ToolScheduler.logger.info("Still waiting for " + (getTotal() - getCompleted()) + " jobs...");
+            }
+        return this.report;
+    }
+}
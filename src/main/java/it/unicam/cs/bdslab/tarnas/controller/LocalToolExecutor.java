@@ -0,0 +1,92 @@
+package it.unicam.cs.bdslab.tarnas.controller;
+
+import it.unicam.cs.bdslab.tarnas.view.utils.TOOL;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Runs the tool commands as plain processes of the host, for machines where the tools are installed
+ * natively (or replaced by stub executables). Shared folder files are passed with their host paths;
+ * the tools installed under /home in the images are looked up under the tools home directory
+ * (TARNAS_TOOLS_HOME in the tool scripts), while annotator and x3dna-dssr must be on the PATH.
+ * Commands running longer than the timeout, if any, are killed and reported as failed.
+ */
+public class LocalToolExecutor implements ToolExecutor {
+
+    public static final Logger logger = Logger.getLogger("it.unicam.cs.bdslab.tarnas.controller.LocalToolExecutor");
+
+    private final Path toolsHome;
+    private final Duration timeout;
+
+    public LocalToolExecutor(Path toolsHome) {
+        this(toolsHome, null);
+    }
+
+    /**
+     * @param timeout longest run of a command, null for no limit
+     */
+    public LocalToolExecutor(Path toolsHome, Duration timeout) {
+        this.toolsHome = toolsHome.toAbsolutePath();
+        this.timeout = timeout;
+    }
+
+    /**
+     * Local executor if the tarnas.executor system property is "local", with the tools home given by
+     * tarnas.tools.home (by default /home, as in the images) and the timeout by
+     * tarnas.tools.timeoutSeconds (by default none); null otherwise.
+     */
+    public static LocalToolExecutor fromSystemProperties() {
+        if (!"local".equalsIgnoreCase(System.getProperty("tarnas.executor", "docker")))
+            return null;
+        long timeoutSeconds = Long.getLong("tarnas.tools.timeoutSeconds", 0);
+        return new LocalToolExecutor(Paths.get(System.getProperty("tarnas.tools.home", "/home")),
+                timeoutSeconds > 0 ? Duration.ofSeconds(timeoutSeconds) : null);
+    }
+
+    @Override
+    public int execute(TOOL tool, String... cmd) throws IOException, InterruptedException {
+        var builder = new ProcessBuilder(List.of(cmd)).inheritIO();
+        builder.environment().put("TARNAS_TOOLS_HOME", toolsHome.toString());
+        var process = builder.start();
+        try {
+            if (timeout == null)
+                return process.waitFor();
+            if (!process.waitFor(timeout.toMillis(), TimeUnit.MILLISECONDS)) {
+                kill(process);
+                throw new IOException(tool + " timed out after " + timeout.toSeconds() + " s");
+            }
+            return process.exitValue();
+        } catch (InterruptedException e) {
+            process.destroy();
+            throw e;
+        }
+    }
+
+    /**
+     * Kills the command with the processes it started, which the tool scripts run in their own session.
+     */
+    private static void kill(Process process) throws InterruptedException {
+        process.descendants().forEach(ProcessHandle::destroyForcibly);
+        process.destroyForcibly();
+        process.waitFor();
+    }
+
+    @Override
+    public String toToolPath(Path hostPath) {
+        return hostPath.toAbsolutePath().toString();
+    }
+
+    /**
+     * Local installations carry no version identifier, so their results are not cached.
+     */
+    @Override
+    public String fingerprint(TOOL tool) {
+        return null;
+    }
+}
@@ -0,0 +1,166 @@
+package it.unicam.cs.bdslab.tarnas.controller;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Splits a PDB file into one file per RNA chain in a single pass over its ATOM/HETATM records,
+ * without building a BioJava structure: records are bucketed by the chain column and copied as
+ * they are to the file of their chain.
+ * <p>
+ * The file is read through a buffered channel into a reused line buffer, so allocation does not
+ * grow with the file. As BioJava does, only the first model is kept, and the HETATM records after
+ * the TER of a chain (ligands, water) are left out. A chain is kept if the {@link ResidueClassifier}
+ * accepts the kind of its residues, like {@link BioJavaController}'s RNA filter; PDB files carry no
+ * chemical component types, so residues are classified from the ones known in advance, looked up
+ * from the record bytes. Files the splitter cannot handle as text (records without a chain ID,
+ * truncated records) are reported to the caller, which falls back to BioJava.
+ */
+public class PdbChainSplitter {
+
+    public static final Logger logger = Logger.getLogger("it.unicam.cs.bdslab.tarnas.controller.PdbChainSplitter");
+
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final byte[] END = "TER\nEND\n".getBytes();
+
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private byte[] line = new byte[128];
+    // residue name, chain, sequence number and insertion code of the last record, columns 18-27
+    private final byte[] residue = new byte[10];
+
+    /**
+     * Writes every selected chain of an accepted kind of the PDB file as &lt;stem&gt;_&lt;chain&gt;.pdb
+     * in the output folder.
+     * Not thread-safe: use one splitter per thread.
+     *
+     * @param chainIds chain IDs separated by ';', or "*" for all
+     * @return the IDs of the chains written, or null if the file has to be read by BioJava instead
+     */
+    public List<String> split(Path pdbFile, String chainIds, Path outputFolder, String stem) throws IOException {
+        var allowed = new boolean[128];
+        if (chainIds.equals("*")) {
+            Arrays.fill(allowed, true);
+        } else {
+            for (String id : chainIds.split(";")) {
+                // multi-character IDs do not exist in PDB files
+                if (id.length() == 1 && id.charAt(0) < 128) allowed[id.charAt(0)] = true;
+            }
+        }
+
+        var outputs = new OutputStream[128];
+        var temps = new Path[128];
+        var classifier = ResidueClassifier.getInstance();
+        var tallies = new ResidueClassifier.Tally[128];
+        var keep = new boolean[128];
+        var terminated = new boolean[128];
+        var order = new ArrayList<Character>();
+        boolean complete = false;
+        try (FileChannel channel = FileChannel.open(pdbFile, StandardOpenOption.READ)) {
+            // empty until the first read
+            buffer.clear().limit(0);
+            Arrays.fill(residue, (byte) 0);
+            int length;
+            int lastChain = -1;
+            while ((length = readLine(channel)) >= 0) {
+                if (startsWith(length, "ENDMDL")) break;
+                boolean atom = startsWith(length, "ATOM  ");
+                boolean hetatm = startsWith(length, "HETATM");
+                if (startsWith(length, "TER")) {
+                    int chain = length > 21 && line[21] != ' ' ? line[21] : lastChain;
+                    if (chain >= 0 && chain < 128) terminated[chain] = true;
+                    continue;
+                }
+                if (!atom && !hetatm) continue;
+                if (length < 54) {
+                    logger.info("Truncated record in " + pdbFile.getFileName());
+                    return null;
+                }
+                int chain = line[21];
+                if (chain == ' ' || chain >= 128 || chain < 0) {
+                    logger.info("Record without a chain ID in " + pdbFile.getFileName());
+                    return null;
+                }
+                lastChain = chain;
+                if (!allowed[chain] || terminated[chain]) continue;
+                if (outputs[chain] == null) {
+                    temps[chain] = outputFolder.resolve(stem + "_" + (char) chain + ".pdb.tmp");
+                    outputs[chain] = new BufferedOutputStream(Channels.newOutputStream(FileChannel.open(temps[chain],
+                            StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)), BUFFER_SIZE);
+                    tallies[chain] = new ResidueClassifier.Tally();
+                    order.add((char) chain);
+                }
+                if (!Arrays.equals(line, 17, 27, residue, 0, 10)) {
+                    System.arraycopy(line, 17, residue, 0, 10);
+                    tallies[chain].add(ResidueClassifier.pdbResidue(line, 17));
+                }
+                outputs[chain].write(line, 0, length);
+                outputs[chain].write('\n');
+            }
+            for (int c = 0; c < 128; c++)
+                keep[c] = tallies[c] != null && classifier.accepts(tallies[c].result());
+            complete = true;
+        } finally {
+            for (int c = 0; c < 128; c++) {
+                if (outputs[c] == null) continue;
+                if (complete && keep[c]) outputs[c].write(END);
+                outputs[c].close();
+                if (!complete || !keep[c]) Files.deleteIfExists(temps[c]);
+            }
+        }
+
+        var written = new ArrayList<String>();
+        for (char c : order) {
+            if (!keep[c]) continue;
+            Files.move(temps[c], outputFolder.resolve(stem + "_" + c + ".pdb"),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            written.add(String.valueOf(c));
+        }
+        return written;
+    }
+
+    /**
+     * Reads the next line into the line buffer, without its terminator.
+     *
+     * @return its length, or -1 at the end of the file
+     */
+    private int readLine(FileChannel channel) throws IOException {
+        int length = 0;
+        boolean any = false;
+        while (true) {
+            if (!buffer.hasRemaining()) {
+                buffer.clear();
+                if (channel.read(buffer) < 0) {
+                    buffer.limit(0);
+                    return any ? length : -1;
+                }
+                buffer.flip();
+                continue;
+            }
+            any = true;
+            byte b = buffer.get();
+            if (b == '\n') return length;
+            if (b == '\r') continue;
+            if (length == line.length) line = Arrays.copyOf(line, length * 2);
+            line[length++] = b;
+        }
+    }
+
+    private boolean startsWith(int length, String record) {
+        if (length < record.length()) return false;
+        for (int i = 0; i < record.length(); i++)
+            if (line[i] != record.charAt(i)) return false;
+        return true;
+    }
+}
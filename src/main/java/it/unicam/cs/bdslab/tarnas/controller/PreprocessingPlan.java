@@ -0,0 +1,160 @@
+package it.unicam.cs.bdslab.tarnas.controller;
+
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * Plan of the preprocessing of a CSV: the rows are coalesced by PDB ID, so every entry is fetched,
+ * parsed and split once, for the union of the chains its rows ask for ("*" takes all of them).
+ * Rows adding no chain to their entry would only rewrite the same chain files, and are dropped.
+ * <p>
+ * The entries to download come first, so that the downloads overlap with the rest of the work;
+ * the others follow largest first, so that the preprocessing workers finish together instead of
+ * waiting for a large entry picked up last.
+ */
+public class PreprocessingPlan {
+
+    /**
+     * A row of the CSV.
+     */
+    public record Row(int lineNumber, String pdbID, String chains) {
+    }
+
+    /**
+     * Where the structure of an entry is read from.
+     */
+    public enum Source {
+        LOCAL, MIRROR, DOWNLOAD
+    }
+
+    /**
+     * Source and size in bytes of an entry; the size is -1 if not known before the download, and is
+     * the compressed size for the mirror.
+     */
+    public record Location(Source source, long bytes) {
+    }
+
+    /**
+     * An entry to preprocess.
+     *
+     * @param pdbID  the ID as written in its first row
+     * @param chains the chain IDs separated by ';', or "*" for all
+     * @param rows   the indexes of its rows in the CSV, in CSV order
+     */
+    public record Entry(String pdbID, String chains, List<Integer> rows, Location location) {
+    }
+
+    private final List<Row> csvRows;
+    private final List<Entry> entries;
+    private final Set<Integer> duplicates;
+
+    private PreprocessingPlan(List<Row> csvRows, List<Entry> entries, Set<Integer> duplicates) {
+        this.csvRows = csvRows;
+        this.entries = entries;
+        this.duplicates = duplicates;
+    }
+
+    /**
+     * Plans the rows; locate tells where the structure of a PDB ID is.
+     */
+    public static PreprocessingPlan of(List<Row> rows, Function<String, Location> locate) {
+        var chainsById = new LinkedHashMap<String, Set<String>>();
+        var rowsById = new HashMap<String, List<Integer>>();
+        var duplicates = new TreeSet<Integer>();
+        for (int i = 0; i < rows.size(); i++) {
+            var key = rows.get(i).pdbID().toUpperCase(Locale.ROOT);
+            rowsById.computeIfAbsent(key, k -> new ArrayList<>()).add(i);
+            var chains = chainsById.get(key);
+            var requested = chainSet(rows.get(i).chains());
+            boolean added;
+            if (chains == null) {
+                chainsById.put(key, requested);
+                added = true;
+            } else if (chains.contains("*")) {
+                added = false;
+            } else if (requested.contains("*")) {
+                chainsById.put(key, requested);
+                added = true;
+            } else {
+                added = chains.addAll(requested);
+            }
+            if (!added) duplicates.add(i);
+        }
+
+        var entries = new ArrayList<Entry>(chainsById.size());
+        for (var id : chainsById.entrySet()) {
+            var entryRows = List.copyOf(rowsById.get(id.getKey()));
+            var pdbID = rows.get(entryRows.get(0)).pdbID();
+            entries.add(new Entry(pdbID, String.join(";", id.getValue()), entryRows, locate.apply(pdbID)));
+        }
+        // downloads first, in CSV order, then largest first (the sort is stable)
+        entries.sort(Comparator.comparing((Entry e) -> e.location().source() != Source.DOWNLOAD)
+                .thenComparing(e -> -e.location().bytes()));
+        return new PreprocessingPlan(List.copyOf(rows), List.copyOf(entries), Collections.unmodifiableSet(duplicates));
+    }
+
+    private static Set<String> chainSet(String chains) {
+        var set = new LinkedHashSet<String>();
+        for (String chain : chains.split(";")) {
+            chain = chain.trim();
+            if (chain.equals("*")) return new LinkedHashSet<>(Set.of("*"));
+            if (!chain.isEmpty()) set.add(chain);
+        }
+        return set;
+    }
+
+    public List<Row> getRows() {
+        return this.csvRows;
+    }
+
+    /**
+     * The entries, in the order they are to be preprocessed.
+     */
+    public List<Entry> getEntries() {
+        return this.entries;
+    }
+
+    /**
+     * Indexes of the rows whose chains were all asked for by previous rows of the same entry.
+     */
+    public Set<Integer> getDuplicateRows() {
+        return this.duplicates;
+    }
+
+    /**
+     * Printable summary of the plan, one line per entry in preprocessing order.
+     */
+    public String report() {
+        var sb = new StringBuilder();
+        sb.append(csvRows.size()).append(" rows, ").append(entries.size()).append(" entries, ")
+                .append(duplicates.size()).append(" duplicate rows\n");
+        long local = 0, mirrored = 0, downloads = 0;
+        for (var entry : entries) {
+            switch (entry.location().source()) {
+                case LOCAL -> local++;
+                case MIRROR -> mirrored++;
+                case DOWNLOAD -> downloads++;
+            }
+        }
+        sb.append(local).append(" local, ").append(mirrored).append(" in the mirror, ")
+                .append(downloads).append(" to download\n");
+        for (var entry : entries) {
+            var lines = new StringJoiner(",");
+            for (int i : entry.rows()) {
+                var line = String.valueOf(csvRows.get(i).lineNumber());
+                lines.add(duplicates.contains(i) ? line + "(dup)" : line);
+            }
+            sb.append(String.format(Locale.ROOT, "%-8s %-9s %10s  %-20s lines %s%n", entry.pdbID(),
+                    entry.location().source().name().toLowerCase(Locale.ROOT), formatBytes(entry.location().bytes()),
+                    entry.chains(), lines));
+        }
+        return sb.toString();
+    }
+
+    private static String formatBytes(long bytes) {
+        if (bytes < 0) return "?";
+        if (bytes < 1024) return bytes + " B";
+        if (bytes < 1024 * 1024) return String.format(Locale.ROOT, "%.1f KB", bytes / 1024.0);
+        return String.format(Locale.ROOT, "%.1f MB", bytes / (1024.0 * 1024));
+    }
+}
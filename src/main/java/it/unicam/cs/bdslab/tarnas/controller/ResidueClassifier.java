@@ -0,0 +1,209 @@
+package it.unicam.cs.bdslab.tarnas.controller;
+
+import it.unicam.cs.bdslab.tarnas.view.utils.POLYMER;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+/**
+ * Classifies residues by chemical component ID (RNA, DNA or protein monomer, or other), and chains
+ * by their residues, to select the chains to preprocess.
+ * <p>
+ * Standard and common modified residues are known in advance; the other components are classified
+ * by their chemical component type as they are met, and cached per component ID whatever their
+ * kind, so classifying a chain is a map lookup per residue. The shared instance learns the types
+ * of the BioJava chemical components, which come from the same dictionary whatever the entry. The
+ * text splitters learn the mmCIF chem_comp types of each entry in a classifier of its own
+ * ({@link #forEntry()}), so that an entry is classified the same whatever was read before it.
+ * The chain kinds accepted by the preprocessing are set by the tarnas.preprocessing.chainTypes
+ * system property (default RNA,HYBRID).
+ */
+public class ResidueClassifier {
+
+    public static final Logger logger = Logger.getLogger("it.unicam.cs.bdslab.tarnas.controller.ResidueClassifier");
+
+    private static final String[] RNA = {
+            "A", "C", "G", "U", "I", "N",
+            // common modified ribonucleotides
+            "PSU", "H2U", "5MU", "5MC", "OMC", "OMG", "OMU", "1MA", "1MG", "2MG", "7MG", "M2G", "4SU", "6MZ",
+            "2MA", "MA6", "T6A", "6IA", "MIA", "YYG", "A2M", "2MU", "5BU", "4OC", "UR3", "3MU", "G7M", "1SC",
+            "CCC", "5IU", "IU", "FHU", "LCC", "LCG", "UMS", "CBV", "0C", "0G", "0U", "MNU"
+    };
+    private static final String[] DNA = {
+            "DA", "DC", "DG", "DT", "DI", "DU", "DN",
+            // common modified deoxyribonucleotides
+            "5CM", "5HC", "BRU", "8OG", "6OG", "CBR", "3DR", "5IC", "TTD", "DOC"
+    };
+    private static final String[] PROTEIN = {
+            "ALA", "ARG", "ASN", "ASP", "CYS", "GLN", "GLU", "GLY", "HIS", "ILE", "LEU", "LYS", "MET", "PHE",
+            "PRO", "SER", "THR", "TRP", "TYR", "VAL", "MSE", "SEC", "PYL", "UNK"
+    };
+
+    // residues known in advance by their PDB residue name, see pdbResidue
+    private static final int[] PDB_KEYS = new int[512];
+    private static final POLYMER[] PDB_KINDS = new POLYMER[PDB_KEYS.length];
+
+    static {
+        for (String id : RNA) putPdbName(id, POLYMER.RNA);
+        for (String id : DNA) putPdbName(id, POLYMER.DNA);
+        for (String id : PROTEIN) putPdbName(id, POLYMER.PROTEIN);
+    }
+
+    // after the tables, which the constructor reads
+    private static final ResidueClassifier instance = new ResidueClassifier(acceptedFromSystemProperties());
+
+    private final Map<String, POLYMER> byComponent = new ConcurrentHashMap<>();
+    private final Set<POLYMER> accepted;
+
+    public ResidueClassifier(Set<POLYMER> accepted) {
+        this.accepted = EnumSet.copyOf(accepted);
+        for (String id : RNA) byComponent.put(id, POLYMER.RNA);
+        for (String id : DNA) byComponent.put(id, POLYMER.DNA);
+        for (String id : PROTEIN) byComponent.put(id, POLYMER.PROTEIN);
+    }
+
+    public static ResidueClassifier getInstance() {
+        return instance;
+    }
+
+    /**
+     * A classifier accepting the same chain kinds, knowing only the residues known in advance, for
+     * the components of a single entry.
+     */
+    public ResidueClassifier forEntry() {
+        return new ResidueClassifier(accepted);
+    }
+
+    private static Set<POLYMER> acceptedFromSystemProperties() {
+        var accepted = EnumSet.noneOf(POLYMER.class);
+        for (String name : System.getProperty("tarnas.preprocessing.chainTypes", "RNA,HYBRID").split(",")) {
+            if (name.isBlank()) continue;
+            try {
+                accepted.add(POLYMER.valueOf(name.trim().toUpperCase(Locale.ROOT)));
+            } catch (IllegalArgumentException e) {
+                logger.severe("Unknown chain type " + name.trim() + ", one of " + Arrays.toString(POLYMER.values()));
+            }
+        }
+        return accepted.isEmpty() ? EnumSet.of(POLYMER.RNA, POLYMER.HYBRID) : accepted;
+    }
+
+    /**
+     * Kind of the residue; OTHER if the component is not known (ligands, water, ions).
+     */
+    public POLYMER residue(String componentId) {
+        var kind = byComponent.get(componentId);
+        return kind != null ? kind : POLYMER.OTHER;
+    }
+
+    /**
+     * Whether the kind of the component is known, either in advance or since it was met.
+     */
+    public boolean isKnown(String componentId) {
+        return byComponent.containsKey(componentId);
+    }
+
+    /**
+     * Records the chemical component type of a component, e.g. "RNA linking" or "L-peptide linking"
+     * (mmCIF _chem_comp.type), or null if it has none. Components already known keep their kind.
+     */
+    public void define(String componentId, String chemCompType) {
+        byComponent.putIfAbsent(componentId, ofChemCompType(chemCompType));
+    }
+
+    /**
+     * Whether chains of this kind are preprocessed.
+     */
+    public boolean accepts(POLYMER chainKind) {
+        return accepted.contains(chainKind);
+    }
+
+    public Set<POLYMER> getAccepted() {
+        return Collections.unmodifiableSet(accepted);
+    }
+
+    /**
+     * Kind of a residue known in advance from its PDB residue name, the 3 bytes at the offset of a
+     * PDB record (e.g. "  U", " DA", "PSU"); OTHER if not known. Looked up without allocating.
+     */
+    public static POLYMER pdbResidue(byte[] record, int offset) {
+        int key = pdbKey(record, offset);
+        if (key == 0) return POLYMER.OTHER;
+        for (int i = slot(key); PDB_KEYS[i] != 0; i = (i + 1) & (PDB_KEYS.length - 1))
+            if (PDB_KEYS[i] == key) return PDB_KINDS[i];
+        return POLYMER.OTHER;
+    }
+
+    /**
+     * The non-blank bytes of a 3-column residue name, packed in an int.
+     */
+    private static int pdbKey(byte[] name, int offset) {
+        int key = 0;
+        for (int i = offset; i < offset + 3; i++)
+            if (name[i] != ' ') key = key << 8 | (name[i] & 0xff);
+        return key;
+    }
+
+    private static int slot(int key) {
+        return (key * 0x9E3779B9) >>> (32 - Integer.numberOfTrailingZeros(PDB_KEYS.length));
+    }
+
+    private static void putPdbName(String id, POLYMER kind) {
+        if (id.length() > 3) return;
+        var name = String.format("%3s", id).getBytes(StandardCharsets.US_ASCII);
+        int key = pdbKey(name, 0);
+        int i = slot(key);
+        while (PDB_KEYS[i] != 0 && PDB_KEYS[i] != key) i = (i + 1) & (PDB_KEYS.length - 1);
+        PDB_KEYS[i] = key;
+        PDB_KINDS[i] = kind;
+    }
+
+    /**
+     * Kind of residue of an mmCIF chemical component type.
+     */
+    public static POLYMER ofChemCompType(String type) {
+        if (type == null) return POLYMER.OTHER;
+        var upper = type.toUpperCase(Locale.ROOT);
+        if (upper.contains("RNA")) return POLYMER.RNA;
+        if (upper.contains("DNA")) return POLYMER.DNA;
+        if (upper.contains("PEPTIDE")) return POLYMER.PROTEIN;
+        return POLYMER.OTHER;
+    }
+
+    /**
+     * Kind of chain of an mmCIF polymer entity type (_entity_poly.type).
+     */
+    public static POLYMER ofEntityPolyType(String type) {
+        if (type == null) return POLYMER.OTHER;
+        var lower = type.toLowerCase(Locale.ROOT);
+        if (lower.contains("hybrid")) return POLYMER.HYBRID;
+        if (lower.contains("polyribonucleotide")) return POLYMER.RNA;
+        if (lower.contains("polydeoxyribonucleotide")) return POLYMER.DNA;
+        if (lower.contains("polypeptide")) return POLYMER.PROTEIN;
+        return POLYMER.OTHER;
+    }
+
+    /**
+     * Residue counts of one chain, fed residue by residue.
+     */
+    public static final class Tally {
+        private int rna;
+        private int dna;
+        private int protein;
+
+        public void add(POLYMER residue) {
+            switch (residue) {
+                case RNA -> rna++;
+                case DNA -> dna++;
+                case PROTEIN -> protein++;
+                default -> {
+                }
+            }
+        }
+
+        public POLYMER result() {
+            return POLYMER.ofChain(rna, dna, protein);
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package it.unicam.cs.bdslab.tarnas.controller;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.logging.Logger;
+
+/**
+ * Append-only journal of the jobs run on a shared folder, so that a run stopped halfway (crash,
+ * hung tool, cancellation) can be resumed instead of started again.
+ * <p>
+ * Every finished job appends one tab-separated line: status (DONE or FAILED), tool, input file name,
+ * SHA-256 of the input, fingerprint of the tool ("-" if unknown, see {@link ToolExecutor#fingerprint}),
+ * time, and the output file names (DONE) or the error (FAILED). Each line is written with a single
+ * append, so a crash loses at most the line being written, which is ignored when the journal is read
+ * back. For each (tool, input) the last line wins: a job is done if it succeeded on the same input
+ * content with the same tool image, and its outputs are still there.
+ */
+public class RunJournal {
+
+    public static final Logger logger = Logger.getLogger("it.unicam.cs.bdslab.tarnas.controller.RunJournal");
+
+    public static final String FILE_NAME = "tarnas-journal.tsv";
+
+    private static final String DONE = "DONE";
+    private static final String FAILED = "FAILED";
+
+    private static final String UNKNOWN = "-";
+
+    private record Entry(String status, String checksum, String fingerprint, List<String> outputs) {
+    }
+
+    private final Path file;
+    private final Map<String, Entry> entries = new HashMap<>();
+
+    private RunJournal(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * Reads the journal of the shared folder, or returns null if tarnas.journal is set to false.
+     */
+    public static RunJournal fromSystemProperties(Path sharedFolder) throws IOException {
+        if (!Boolean.parseBoolean(System.getProperty("tarnas.journal", "true")))
+            return null;
+        return open(sharedFolder.resolve(FILE_NAME));
+    }
+
+    public static RunJournal open(Path file) throws IOException {
+        var journal = new RunJournal(file);
+        if (!Files.isRegularFile(file)) return journal;
+        terminateLastLine(file);
+        int lines = 0;
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            var fields = line.split("\t", -1);
+            // written before the fingerprints were journaled
+            if (fields.length == 6)
+                fields = new String[]{fields[0], fields[1], fields[2], fields[3], UNKNOWN, fields[4], fields[5]};
+            if (fields.length != 7 || !(fields[0].equals(DONE) || fields[0].equals(FAILED))) {
+                logger.info("Skipping malformed journal line: " + line);
+                continue;
+            }
+            var outputs = fields[0].equals(DONE) && !fields[6].isEmpty() ? List.of(fields[6].split("\\|")) : List.<String>of();
+            journal.entries.put(key(fields[1], fields[2]), new Entry(fields[0], fields[3], fields[4], outputs));
+            lines++;
+        }
+        logger.info("Read " + lines + " journal lines from " + file);
+        return journal;
+    }
+
+    /**
+     * Ends a line cut by a crash, so that the next line is not appended to it.
+     */
+    private static void terminateLastLine(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long size = channel.size();
+            if (size == 0) return;
+            var last = ByteBuffer.allocate(1);
+            channel.read(last, size - 1);
+            if (last.get(0) != '\n')
+                channel.write(ByteBuffer.wrap(new byte[]{'\n'}), size);
+        }
+    }
+
+    public Path getFile() {
+        return this.file;
+    }
+
+    /**
+     * Whether the job already succeeded on an input with this checksum, with the tool of this
+     * fingerprint (null if unknown), and its outputs are still in the output folder.
+     */
+    public synchronized boolean isDone(ToolJob job, String checksum, String fingerprint, Path outputFolder) {
+        var entry = entries.get(key(job));
+        if (entry == null || !entry.status().equals(DONE) || !entry.checksum().equals(checksum)
+                || !entry.fingerprint().equals(orUnknown(fingerprint)))
+            return false;
+        return entry.outputs().stream().allMatch(name -> Files.exists(outputFolder.resolve(name)));
+    }
+
+    /**
+     * Whether the last run of the job failed.
+     */
+    public synchronized boolean hasFailed(ToolJob job) {
+        var entry = entries.get(key(job));
+        return entry != null && entry.status().equals(FAILED);
+    }
+
+    public void recordDone(ToolJob job, String checksum, String fingerprint, List<Path> outputs) throws IOException {
+        var names = outputs.stream().map(p -> p.getFileName().toString()).toList();
+        append(new Entry(DONE, checksum, orUnknown(fingerprint), names), job, String.join("|", names));
+    }
+
+    public void recordFailure(ToolJob job, String checksum, String fingerprint, Exception error) throws IOException {
+        append(new Entry(FAILED, checksum, orUnknown(fingerprint), List.of()), job,
+                String.valueOf(error).replaceAll("[\t\r\n]+", " "));
+    }
+
+    private static String orUnknown(String fingerprint) {
+        return fingerprint == null || fingerprint.isEmpty() ? UNKNOWN : fingerprint;
+    }
+
+    private synchronized void append(Entry entry, ToolJob job, String detail) throws IOException {
+        var line = String.join("\t", entry.status(), job.tool().name(), job.input().getFileName().toString(),
+                entry.checksum(), entry.fingerprint(), String.valueOf(System.currentTimeMillis()), detail) + "\n";
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            var buffer = ByteBuffer.wrap(line.getBytes(StandardCharsets.UTF_8));
+            while (buffer.hasRemaining())
+                channel.write(buffer);
+        }
+        entries.put(key(job), entry);
+    }
+
+    private static String key(ToolJob job) {
+        return key(job.tool().name(), job.input().getFileName().toString());
+    }
+
+    private static String key(String tool, String input) {
+        return tool + "\t" + input;
+    }
+}
@@ -0,0 +1,105 @@
+package it.unicam.cs.bdslab.tarnas.controller;
+
+import it.unicam.cs.bdslab.tarnas.view.utils.TOOL;
+
+import java.util.*;
+
+/**
+ * Combined completion status of a run of one or more tools.
+ * Counters are updated by the worker threads while the run is in progress.
+ */
+public class RunReport {
+
+    private final Map<TOOL, Integer> total = new EnumMap<>(TOOL.class);
+    private final Map<TOOL, Integer> succeeded = new EnumMap<>(TOOL.class);
+    private final List<ToolJob> failedJobs = new ArrayList<>();
+    private boolean cancelled;
+
+    public RunReport(Collection<ToolJob> jobs) {
+        for (var job : jobs) {
+            total.merge(job.tool(), 1, Integer::sum);
+            succeeded.putIfAbsent(job.tool(), 0);
+        }
+    }
+
+    /**
+     * Adds a job submitted while the run is in progress.
+     */
+    synchronized void addJob(ToolJob job) {
+        total.merge(job.tool(), 1, Integer::sum);
+        succeeded.putIfAbsent(job.tool(), 0);
+    }
+
+    synchronized void recordSuccess(ToolJob job) {
+        succeeded.merge(job.tool(), 1, Integer::sum);
+    }
+
+    synchronized void recordFailure(ToolJob job) {
+        failedJobs.add(job);
+    }
+
+    synchronized void markCancelled() {
+        cancelled = true;
+    }
+
+    public synchronized boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Tools of the run, in declaration order.
+     */
+    public synchronized List<TOOL> getTools() {
+        return List.copyOf(total.keySet());
+    }
+
+    public synchronized int getTotal(TOOL tool) {
+        return total.getOrDefault(tool, 0);
+    }
+
+    public synchronized int getSucceeded(TOOL tool) {
+        return succeeded.getOrDefault(tool, 0);
+    }
+
+    public synchronized int getFailed(TOOL tool) {
+        return (int) failedJobs.stream().filter(j -> j.tool() == tool).count();
+    }
+
+    public synchronized int getTotal() {
+        return total.values().stream().mapToInt(Integer::intValue).sum();
+    }
+
+    public synchronized int getSucceeded() {
+        return succeeded.values().stream().mapToInt(Integer::intValue).sum();
+    }
+
+    public synchronized int getFailed() {
+        return failedJobs.size();
+    }
+
+    public synchronized List<ToolJob> getFailedJobs() {
+        return List.copyOf(failedJobs);
+    }
+
+    public synchronized boolean isSuccessful() {
+        return !cancelled && failedJobs.isEmpty() && getSucceeded() == getTotal();
+    }
+
+    /**
+     * One line per tool, e.g. "RNAVIEW: 120/121 files (1 failed)".
+     */
+    public synchronized String summary() {
+        if (total.isEmpty()) return "No files to process.";
+        var sb = new StringBuilder();
+        for (var entry : total.entrySet()) {
+            var tool = entry.getKey();
+            long failed = failedJobs.stream().filter(j -> j.tool() == tool).count();
+            sb.append(tool.getName()).append(": ")
+                    .append(succeeded.get(tool)).append('/').append(entry.getValue()).append(" files");
+            if (failed > 0) sb.append(" (").append(failed).append(" failed)");
+            sb.append('\n');
+        }
+        if (cancelled) sb.append("Run cancelled: ").append(getTotal() - getSucceeded() - getFailed()).append(" files not processed");
+        return sb.toString().trim();
+    }
+}
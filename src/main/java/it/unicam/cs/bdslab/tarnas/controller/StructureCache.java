@@ -0,0 +1,134 @@
+package it.unicam.cs.bdslab.tarnas.controller;
+
+import org.biojava.nbio.structure.Chain;
+import org.biojava.nbio.structure.Group;
+import org.biojava.nbio.structure.Structure;
+
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+/**
+ * Thread-safe cache of parsed structures, keyed by file path, modification time and size,
+ * so that a file filtered by several CSV rows is parsed only once.
+ * <p>
+ * The cache is bounded by the total number of atoms of the cached structures and evicts the least
+ * recently used ones; values are also held through soft references, so the garbage collector can
+ * reclaim them under memory pressure. Concurrent requests for the same file wait for a single parse.
+ */
+public class StructureCache {
+
+    public static final Logger logger = Logger.getLogger("it.unicam.cs.bdslab.tarnas.controller.StructureCache");
+
+    /**
+     * Rough heap footprint of one parsed atom, including its share of groups and chains.
+     */
+    private static final long BYTES_PER_ATOM = 400;
+
+    @FunctionalInterface
+    public interface Loader {
+        Structure load(Path path) throws IOException;
+    }
+
+    private record Key(Path path, long modified, long size) {
+    }
+
+    private record Entry(SoftReference<Structure> structure, long atoms) {
+    }
+
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<Key, Object> loading = new ConcurrentHashMap<>();
+    private final long maxAtoms;
+    private long cachedAtoms;
+
+    public StructureCache(long maxAtoms) {
+        this.maxAtoms = maxAtoms;
+    }
+
+    /**
+     * Cache bounded by the tarnas.structureCache.maxAtoms system property, by default by a
+     * quarter of the maximum heap size.
+     */
+    public static StructureCache fromSystemProperties() {
+        long heapBudget = Runtime.getRuntime().maxMemory() / 4 / BYTES_PER_ATOM;
+        return new StructureCache(Long.getLong("tarnas.structureCache.maxAtoms", heapBudget));
+    }
+
+    /**
+     * Returns the cached structure of the file, parsing it with the loader on a miss.
+     */
+    public Structure get(Path path, Loader loader) throws IOException {
+        var attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        var key = new Key(path.toAbsolutePath().normalize(), attributes.lastModifiedTime().toMillis(), attributes.size());
+
+        var structure = lookup(key);
+        if (structure != null) return structure;
+
+        synchronized (loading.computeIfAbsent(key, k -> new Object())) {
+            try {
+                // another thread may have parsed it while we were waiting
+                structure = lookup(key);
+                if (structure != null) return structure;
+
+                structure = loader.load(path);
+                put(key, structure, countAtoms(structure));
+                return structure;
+            } finally {
+                loading.remove(key);
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        cachedAtoms = 0;
+    }
+
+    private synchronized Structure lookup(Key key) {
+        var entry = entries.get(key);
+        if (entry == null) return null;
+        var structure = entry.structure().get();
+        if (structure == null) {
+            // collected by the GC
+            entries.remove(key);
+            cachedAtoms -= entry.atoms();
+        }
+        return structure;
+    }
+
+    private synchronized void put(Key key, Structure structure, long atoms) {
+        // a modified file makes its older versions useless
+        entries.entrySet().removeIf(e -> {
+            if (!e.getKey().path().equals(key.path())) return false;
+            cachedAtoms -= e.getValue().atoms();
+            return true;
+        });
+        if (atoms > maxAtoms) {
+            logger.info(key.path().getFileName() + " has " + atoms + " atoms, too large to be cached");
+            return;
+        }
+        entries.put(key, new Entry(new SoftReference<>(structure), atoms));
+        cachedAtoms += atoms;
+
+        var eldest = entries.entrySet().iterator();
+        while (cachedAtoms > maxAtoms && eldest.hasNext()) {
+            var e = eldest.next();
+            cachedAtoms -= e.getValue().atoms();
+            eldest.remove();
+        }
+    }
+
+    private static long countAtoms(Structure structure) {
+        long atoms = 0;
+        for (Chain chain : structure.getChains())
+            for (Group group : chain.getAtomGroups())
+                atoms += group.getAtoms().size();
+        return atoms;
+    }
+}
@@ -0,0 +1,126 @@
+package it.unicam.cs.bdslab.tarnas.controller;
+
+import it.unicam.cs.bdslab.tarnas.view.utils.FORMAT;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Downloads entries as the raw files the server provides, streamed to disk without parsing them.
+ * <p>
+ * The PDB format is requested first: the archive only provides it for entries that fit its fixed
+ * columns (e.g. at most 99999 atoms), so a missing PDB file means the entry must be used as mmCIF.
+ * Files are fetched gzip-compressed by default; the compressed bytes go as they are to the
+ * {@link StructureMirror}. The base URL can point to any server with the files.rcsb.org/download
+ * layout, including a local HTTP stand-in or a file: directory.
+ */
+public class StructureDownloader {
+
+    public static final Logger logger = Logger.getLogger("it.unicam.cs.bdslab.tarnas.controller.StructureDownloader");
+
+    public static final String DEFAULT_URL = "https://files.rcsb.org/download/";
+
+    private static final int TIMEOUT_MILLIS = 30_000;
+
+    private final String baseUrl;
+    private final boolean gzip;
+
+    public StructureDownloader(String baseUrl, boolean gzip) {
+        this.baseUrl = baseUrl.endsWith("/") ? baseUrl : baseUrl + "/";
+        this.gzip = gzip;
+    }
+
+    /**
+     * Downloader configured by the tarnas.download.url and tarnas.download.gzip system properties.
+     */
+    public static StructureDownloader fromSystemProperties() {
+        return new StructureDownloader(System.getProperty("tarnas.download.url", DEFAULT_URL),
+                Boolean.parseBoolean(System.getProperty("tarnas.download.gzip", "true")));
+    }
+
+    /**
+     * Downloads the entry into the output folder as &lt;ID&gt;.pdb, or as &lt;ID&gt;.cif if the server has
+     * no PDB file for it, and adds it to the mirror if not null.
+     *
+     * @throws FileNotFoundException if the server has neither file
+     */
+    public Path download(String pdbId, Path outputFolder, StructureMirror mirror) throws IOException {
+        var id = pdbId.toUpperCase(Locale.ROOT);
+        for (FORMAT format : new FORMAT[]{FORMAT.PDB, FORMAT.CIF}) {
+            var name = id + "." + format.getExtension();
+            var tmp = Files.createTempFile(outputFolder, id, gzip ? ".gz.part" : ".part");
+            try {
+                if (!fetch(name + (gzip ? ".gz" : ""), tmp)) continue;
+                var target = outputFolder.resolve(name);
+                // published whole, as an existing file is taken as downloaded
+                if (gzip) {
+                    var part = Files.createTempFile(outputFolder, id, ".part");
+                    try (InputStream in = new GZIPInputStream(Files.newInputStream(tmp), 64 * 1024)) {
+                        Files.copy(in, part, StandardCopyOption.REPLACE_EXISTING);
+                        Files.move(part, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                    } finally {
+                        Files.deleteIfExists(part);
+                    }
+                    if (mirror != null) mirrorQuietly(() -> mirror.storeCompressed(id, format, tmp));
+                } else {
+                    Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                    if (mirror != null) mirrorQuietly(() -> mirror.store(id, target));
+                }
+                logger.info("Downloaded " + name);
+                return target;
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+        }
+        throw new FileNotFoundException("Entry " + id + " not found at " + baseUrl);
+    }
+
+    /**
+     * Streams a file of the server to dst.
+     *
+     * @return false if the server does not have it
+     */
+    private boolean fetch(String name, Path dst) throws IOException {
+        URLConnection connection = new URL(baseUrl + name).openConnection();
+        connection.setConnectTimeout(TIMEOUT_MILLIS);
+        connection.setReadTimeout(TIMEOUT_MILLIS);
+        if (connection instanceof HttpURLConnection http) {
+            int status = http.getResponseCode();
+            if (status == HttpURLConnection.HTTP_NOT_FOUND) {
+                http.disconnect();
+                return false;
+            }
+            if (status != HttpURLConnection.HTTP_OK)
+                throw new IOException("GET " + baseUrl + name + " returned " + status);
+        }
+        try (InputStream in = connection.getInputStream()) {
+            Files.copy(in, dst, StandardCopyOption.REPLACE_EXISTING);
+            return true;
+        } catch (FileNotFoundException e) {
+            // file: URLs
+            return false;
+        }
+    }
+
+    private interface MirrorStore {
+        void store() throws IOException;
+    }
+
+    private static void mirrorQuietly(MirrorStore store) {
+        try {
+            store.store();
+        } catch (IOException e) {
+            StructureMirror.logger.severe("Could not mirror download: " + e);
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package it.unicam.cs.bdslab.tarnas.controller;
+
+import it.unicam.cs.bdslab.tarnas.view.utils.FORMAT;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Local mirror of downloaded PDB/mmCIF entries, checked before any remote fetch.
+ * <p>
+ * Entries are stored gzip-compressed as &lt;root&gt;/&lt;ID&gt;.&lt;pdb|cif&gt;.gz, published with an atomic
+ * rename, and listed in a tab-separated index (id, format, compressed size, last use) that drives the
+ * least-recently-used eviction by size. The index is rebuilt from the directory if it is missing, so
+ * the mirror can also be seeded by hand with gzipped entries. In offline mode a miss fails at once
+ * instead of going to the network.
+ */
+public class StructureMirror {
+
+    public static final Logger logger = Logger.getLogger("it.unicam.cs.bdslab.tarnas.controller.StructureMirror");
+
+    public static final Path DEFAULT_ROOT = Paths.get(System.getProperty("user.home"), ".tarnas", "mirror");
+    public static final long DEFAULT_MAX_BYTES = 2L * 1024 * 1024 * 1024;
+
+    private static final String INDEX = "index.tsv";
+
+    private record Entry(String id, FORMAT format, long bytes, long lastUsed) {
+    }
+
+    private final Path root;
+    private final long maxBytes;
+    private final boolean offline;
+    private final Map<String, Entry> index = new HashMap<>();
+    private boolean loaded;
+
+    public StructureMirror(Path root, long maxBytes, boolean offline) {
+        this.root = root;
+        this.maxBytes = maxBytes;
+        this.offline = offline;
+    }
+
+    /**
+     * Mirror configured by the tarnas.mirror.dir, tarnas.mirror.maxMB and tarnas.mirror.offline system
+     * properties, or null if tarnas.mirror is set to false.
+     */
+    public static StructureMirror fromSystemProperties() {
+        if (!Boolean.parseBoolean(System.getProperty("tarnas.mirror", "true")))
+            return null;
+        var dir = System.getProperty("tarnas.mirror.dir");
+        long maxMB = Long.getLong("tarnas.mirror.maxMB", DEFAULT_MAX_BYTES / (1024 * 1024));
+        return new StructureMirror(dir != null ? Paths.get(dir) : DEFAULT_ROOT, maxMB * 1024 * 1024,
+                Boolean.getBoolean("tarnas.mirror.offline"));
+    }
+
+    public Path getRoot() {
+        return this.root;
+    }
+
+    public boolean isOffline() {
+        return this.offline;
+    }
+
+    /**
+     * Decompresses a mirrored entry into the output folder as &lt;ID&gt;.&lt;pdb|cif&gt;.
+     *
+     * @return the restored file, or null on a miss
+     */
+    public Path restore(String pdbId, Path outputFolder) throws IOException {
+        var id = pdbId.toUpperCase(Locale.ROOT);
+        Entry entry;
+        synchronized (this) {
+            loadIndex();
+            entry = index.get(id);
+        }
+        if (entry == null) return null;
+
+        var source = entryPath(id, entry.format());
+        var target = outputFolder.resolve(id + "." + entry.format().getExtension());
+        var tmp = Files.createTempFile(outputFolder, id, ".part");
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(source), 64 * 1024)) {
+            Files.copy(in, tmp, StandardCopyOption.REPLACE_EXISTING);
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Files.deleteIfExists(tmp);
+            // removed or corrupted behind our back
+            logger.info("Mirror entry " + id + " not restorable: " + e.getMessage());
+            synchronized (this) {
+                index.remove(id);
+                saveIndex();
+            }
+            return null;
+        }
+        synchronized (this) {
+            index.put(id, new Entry(id, entry.format(), entry.bytes(), System.currentTimeMillis()));
+            saveIndex();
+        }
+        logger.info("Restored " + id + " from the local mirror");
+        return target;
+    }
+
+    /**
+     * Compressed size of a mirrored entry, or -1 on a miss.
+     */
+    public synchronized long size(String pdbId) throws IOException {
+        loadIndex();
+        var entry = index.get(pdbId.toUpperCase(Locale.ROOT));
+        return entry != null ? entry.bytes() : -1;
+    }
+
+    /**
+     * Adds a downloaded entry (&lt;ID&gt;.pdb or &lt;ID&gt;.cif) to the mirror, evicting the least recently
+     * used entries if the mirror grows beyond its maximum size.
+     */
+    public void store(String pdbId, Path file) throws IOException {
+        var id = pdbId.toUpperCase(Locale.ROOT);
+        var format = FORMAT.fromFileName(file.getFileName().toString());
+        if (format == null) throw new IllegalArgumentException("Not a PDB or mmCIF file: " + file);
+
+        Files.createDirectories(root);
+        var tmp = Files.createTempFile(root, id, ".tmp");
+        try (OutputStream out = new GZIPOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 64 * 1024))) {
+            Files.copy(file, out);
+        } catch (IOException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+        publish(id, format, tmp);
+    }
+
+    /**
+     * Same as {@link #store(String, Path)}, for an entry that is already gzip-compressed
+     * (e.g. as downloaded), which is copied as it is.
+     */
+    public void storeCompressed(String pdbId, FORMAT format, Path gzFile) throws IOException {
+        var id = pdbId.toUpperCase(Locale.ROOT);
+        Files.createDirectories(root);
+        var tmp = Files.createTempFile(root, id, ".tmp");
+        try {
+            Files.copy(gzFile, tmp, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+        publish(id, format, tmp);
+    }
+
+    private void publish(String id, FORMAT format, Path tmp) throws IOException {
+        long bytes = Files.size(tmp);
+        synchronized (this) {
+            loadIndex();
+            var previous = index.get(id);
+            if (previous != null && previous.format() != format)
+                Files.deleteIfExists(entryPath(id, previous.format()));
+            Files.move(tmp, entryPath(id, format), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            index.put(id, new Entry(id, format, bytes, System.currentTimeMillis()));
+            evict();
+            saveIndex();
+        }
+    }
+
+    private void evict() {
+        long total = index.values().stream().mapToLong(Entry::bytes).sum();
+        if (total <= maxBytes) return;
+        var entries = new ArrayList<>(index.values());
+        entries.sort(Comparator.comparingLong(Entry::lastUsed));
+        int evicted = 0;
+        for (var entry : entries) {
+            if (total <= maxBytes) break;
+            try {
+                Files.deleteIfExists(entryPath(entry.id(), entry.format()));
+                index.remove(entry.id());
+                total -= entry.bytes();
+                evicted++;
+            } catch (IOException e) {
+                logger.info("Could not evict " + entry.id() + ": " + e.getMessage());
+            }
+        }
+        logger.info("Evicted " + evicted + " mirror entries, mirror size now " + total + " bytes");
+    }
+
+    private void loadIndex() throws IOException {
+        if (loaded) return;
+        loaded = true;
+        var indexFile = root.resolve(INDEX);
+        if (Files.isRegularFile(indexFile)) {
+            for (String line : Files.readAllLines(indexFile, StandardCharsets.UTF_8)) {
+                var fields = line.split("\t");
+                if (fields.length != 4) continue;
+                try {
+                    var entry = new Entry(fields[0], FORMAT.valueOf(fields[1]), Long.parseLong(fields[2]), Long.parseLong(fields[3]));
+                    if (Files.exists(entryPath(entry.id(), entry.format())))
+                        index.put(entry.id(), entry);
+                } catch (IllegalArgumentException e) {
+                    logger.info("Skipping malformed mirror index line: " + line);
+                }
+            }
+        }
+        // entries added by hand, or by an instance that crashed before saving the index
+        if (!Files.isDirectory(root)) return;
+        try (Stream<Path> files = Files.list(root)) {
+            for (Path p : files.toList()) {
+                var name = p.getFileName().toString();
+                if (!name.endsWith(".gz")) continue;
+                var format = FORMAT.fromFileName(name.substring(0, name.length() - 3));
+                if (format == null) continue;
+                var id = name.substring(0, name.indexOf('.')).toUpperCase(Locale.ROOT);
+                if (index.containsKey(id)) continue;
+                // seeded with another case or extension case, e.g. 1abc.CIF.gz
+                var canonical = entryPath(id, format);
+                if (!p.getFileName().equals(canonical.getFileName()))
+                    p = Files.move(p, canonical, StandardCopyOption.ATOMIC_MOVE);
+                index.put(id, new Entry(id, format, Files.size(p), Files.getLastModifiedTime(p).toMillis()));
+            }
+        }
+    }
+
+    private void saveIndex() throws IOException {
+        Files.createDirectories(root);
+        var sb = new StringBuilder();
+        for (var entry : index.values())
+            sb.append(entry.id()).append('\t').append(entry.format().name()).append('\t')
+                    .append(entry.bytes()).append('\t').append(entry.lastUsed()).append('\n');
+        var tmp = Files.createTempFile(root, "index", ".tmp");
+        Files.writeString(tmp, sb, StandardCharsets.UTF_8);
+        Files.move(tmp, root.resolve(INDEX), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private Path entryPath(String id, FORMAT format) {
+        return root.resolve(id + "." + format.getExtension() + ".gz");
+    }
+}
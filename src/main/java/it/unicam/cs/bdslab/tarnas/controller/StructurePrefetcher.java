@@ -0,0 +1,154 @@
+package it.unicam.cs.bdslab.tarnas.controller;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.logging.Logger;
+
+/**
+ * Fetches the structure files of the CSV entries ahead of the filtering, so that downloads overlap
+ * with the filtering of the entries already available.
+ * <p>
+ * Items are scanned in order: the ones whose file is already there are handed over at once, the
+ * others are downloaded by a limited number of threads, with retries and exponential backoff on
+ * transient errors. Items are handed over through a bounded queue, in the order they become
+ * ready, so that downloads never run more than the queue capacity ahead of the filtering.
+ */
+public class StructurePrefetcher {
+
+    public static final Logger logger = Logger.getLogger("it.unicam.cs.bdslab.tarnas.controller.StructurePrefetcher");
+
+    @FunctionalInterface
+    public interface Fetcher {
+        /**
+         * @throws FileNotFoundException if the entry does not exist, which is not retried
+         */
+        Path fetch(String pdbId) throws IOException;
+    }
+
+    /**
+     * An item with its downloaded file, or with the error that prevented the download.
+     * Both are null for items that did not need a download.
+     */
+    public record Ready<T>(T item, Path file, Exception error) {
+    }
+
+    private final Fetcher fetcher;
+    private final int concurrency;
+    private final int retries;
+    private final long backoffMillis;
+    private final int queueCapacity;
+
+    public StructurePrefetcher(Fetcher fetcher, int concurrency, int retries, long backoffMillis, int queueCapacity) {
+        this.fetcher = fetcher;
+        this.concurrency = Math.max(1, concurrency);
+        this.retries = Math.max(0, retries);
+        this.backoffMillis = backoffMillis;
+        this.queueCapacity = Math.max(1, queueCapacity);
+    }
+
+    /**
+     * Prefetcher configured by the tarnas.prefetch.threads (4), tarnas.prefetch.retries (3),
+     * tarnas.prefetch.backoffMillis (1000) and tarnas.prefetch.queue (16) system properties.
+     */
+    public static StructurePrefetcher fromSystemProperties(Fetcher fetcher) {
+        return new StructurePrefetcher(fetcher,
+                Integer.getInteger("tarnas.prefetch.threads", 4),
+                Integer.getInteger("tarnas.prefetch.retries", 3),
+                Long.getLong("tarnas.prefetch.backoffMillis", 1000),
+                Integer.getInteger("tarnas.prefetch.queue", 16));
+    }
+
+    /**
+     * Starts prefetching the items; needsFetch tells the items whose file is missing.
+     */
+    public <T> Pipeline<T> start(List<T> items, Function<T, String> pdbId, Predicate<T> needsFetch) {
+        return new Pipeline<>(items, pdbId, needsFetch);
+    }
+
+    /**
+     * Items being prefetched. {@link #take()} can be called by several consumers.
+     */
+    public class Pipeline<T> implements AutoCloseable {
+
+        private final int size;
+        private final BlockingQueue<Ready<T>> ready = new ArrayBlockingQueue<>(queueCapacity);
+        private final AtomicInteger taken = new AtomicInteger();
+        private final ExecutorService downloads;
+        private final Thread feeder;
+
+        private Pipeline(List<T> items, Function<T, String> pdbId, Predicate<T> needsFetch) {
+            this.size = items.size();
+            this.downloads = Executors.newFixedThreadPool(concurrency, r -> {
+                var thread = new Thread(r, "tarnas-prefetch");
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.feeder = new Thread(() -> {
+                try {
+                    for (T item : items) {
+                        if (!needsFetch.test(item)) {
+                            ready.put(new Ready<>(item, null, null));
+                            continue;
+                        }
+                        downloads.execute(() -> {
+                            Ready<T> result;
+                            try {
+                                result = new Ready<>(item, fetchWithRetries(pdbId.apply(item)), null);
+                            } catch (InterruptedException e) {
+                                return;
+                            } catch (Exception e) {
+                                result = new Ready<>(item, null, e);
+                            }
+                            try {
+                                ready.put(result);
+                            } catch (InterruptedException ignored) {
+                                // closed
+                            }
+                        });
+                    }
+                } catch (InterruptedException | RejectedExecutionException ignored) {
+                    // closed
+                }
+            }, "tarnas-prefetch-feeder");
+            this.feeder.setDaemon(true);
+            this.feeder.start();
+        }
+
+        /**
+         * Next ready item, waiting for it if needed.
+         *
+         * @return null once every item has been taken
+         */
+        public Ready<T> take() throws InterruptedException {
+            if (taken.getAndIncrement() >= size) return null;
+            return ready.take();
+        }
+
+        @Override
+        public void close() {
+            feeder.interrupt();
+            downloads.shutdownNow();
+        }
+    }
+
+    private Path fetchWithRetries(String pdbId) throws IOException, InterruptedException {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                return fetcher.fetch(pdbId);
+            } catch (FileNotFoundException e) {
+                throw e;
+            } catch (IOException e) {
+                if (attempt >= retries) throw e;
+                long delay = backoffMillis << attempt;
+                logger.info("Download of " + pdbId + " failed (" + e.getMessage() + "), retrying in " + delay + " ms");
+                Thread.sleep(delay);
+            }
+        }
+    }
+}
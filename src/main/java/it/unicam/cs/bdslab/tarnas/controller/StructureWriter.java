@@ -0,0 +1,311 @@
+package it.unicam.cs.bdslab.tarnas.controller;
+
+import org.biojava.nbio.structure.*;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.logging.Logger;
+
+/**
+ * Streaming PDB and mmCIF writer for filtered structures.
+ * <p>
+ * Unlike {@code Structure.toPDB()} and {@code toMMCIF()}, which build the whole file as a string,
+ * atom records are formatted one at a time into a reused line buffer and written through a buffered
+ * file channel, so memory stays flat regardless of the structure size. Numbers are formatted by hand,
+ * independently of the default locale (no decimal commas).
+ * <p>
+ * PDB readers take the chain ID from column 22 only: chains with longer IDs are written under a
+ * free single-character ID, and the mapping is logged. Structures that do not fit the fixed PDB
+ * columns otherwise (residue names longer than 3 characters, sequence numbers beyond 4 columns)
+ * are rejected with a {@link PdbFormatException}, as they can only be written as mmCIF.
+ */
+public class StructureWriter {
+
+    public static final Logger logger = Logger.getLogger("it.unicam.cs.bdslab.tarnas.controller.StructureWriter");
+
+    /**
+     * The structure does not fit the columns of the PDB format.
+     */
+    public static class PdbFormatException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public PdbFormatException(String message) {
+            super(message);
+        }
+    }
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private static final String[] ATOM_SITE_COLUMNS = {
+            "group_PDB", "id", "type_symbol", "label_atom_id", "label_alt_id", "label_comp_id",
+            "label_asym_id", "label_entity_id", "label_seq_id", "pdbx_PDB_ins_code",
+            "Cartn_x", "Cartn_y", "Cartn_z", "occupancy", "B_iso_or_equiv", "pdbx_formal_charge",
+            "auth_seq_id", "auth_comp_id", "auth_asym_id", "auth_atom_id", "pdbx_PDB_model_num"
+    };
+
+    private final StringBuilder line = new StringBuilder(128);
+    private char[] chars = new char[128];
+
+    /**
+     * Writes the structure as a PDB file. The file is written aside and moved once complete, so
+     * that a structure rejected halfway leaves no file.
+     *
+     * @throws PdbFormatException if the structure does not fit the PDB columns
+     */
+    public void writePDB(Structure structure, Path dst) throws IOException {
+        var chains = structure.getChains();
+        var chainIds = pdbChainIds(chains, dst);
+        var tmp = dst.resolveSibling(dst.getFileName() + ".tmp");
+        try (Writer out = open(tmp)) {
+            for (int i = 0; i < chains.size(); i++) {
+                Group last = null;
+                for (Group group : chains.get(i).getAtomGroups()) {
+                    writePDBGroup(out, chainIds[i], group);
+                    last = group;
+                }
+                if (last != null) {
+                    line.setLength(0);
+                    line.append("TER");
+                    newLine(out);
+                }
+            }
+            out.write("END\n");
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+        Files.move(tmp, dst, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Single-character PDB chain ID of each chain: its own if it has one character, otherwise the
+     * first one not used by another chain of the structure.
+     */
+    private static char[] pdbChainIds(List<Chain> chains, Path dst) throws PdbFormatException {
+        var ids = new char[chains.size()];
+        var used = new HashSet<Character>();
+        for (int i = 0; i < ids.length; i++) {
+            var name = chainName(chains.get(i));
+            if (name.length() <= 1) {
+                ids[i] = name.isEmpty() ? ' ' : name.charAt(0);
+                used.add(ids[i]);
+            }
+        }
+        int next = 0;
+        for (int i = 0; i < ids.length; i++) {
+            var name = chainName(chains.get(i));
+            if (name.length() <= 1) continue;
+            while (next < CifBundleSplitter.CHAIN_IDS.length() && used.contains(CifBundleSplitter.CHAIN_IDS.charAt(next)))
+                next++;
+            if (next == CifBundleSplitter.CHAIN_IDS.length())
+                throw new PdbFormatException("No single-character chain ID left for chain " + name + " in " + dst.getFileName());
+            ids[i] = CifBundleSplitter.CHAIN_IDS.charAt(next++);
+            used.add(ids[i]);
+            logger.info("Chain " + name + " written as chain " + ids[i] + " in " + dst.getFileName());
+        }
+        return ids;
+    }
+
+    private static String chainName(Chain chain) {
+        return chain.getName() == null ? chain.getId() : chain.getName();
+    }
+
+    /**
+     * Writes the structure as an mmCIF file, aside and moved once complete like {@link #writePDB}.
+     */
+    public void writeMMCIF(Structure structure, Path dst) throws IOException {
+        var tmp = dst.resolveSibling(dst.getFileName() + ".tmp");
+        try (Writer out = open(tmp)) {
+            var pdbId = structure.getPdbId();
+            String code = pdbId == null ? null : pdbId.getId();
+            out.write("data_" + (code == null || code.isBlank() ? "TARNAS" : code) + "\n#\nloop_\n");
+            for (String column : ATOM_SITE_COLUMNS)
+                out.write("_atom_site." + column + "\n");
+            for (Chain chain : structure.getChains())
+                for (Group group : chain.getAtomGroups())
+                    writeMMCIFGroup(out, chain, group);
+            out.write("#\n");
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+        Files.move(tmp, dst, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static Writer open(Path dst) throws IOException {
+        var channel = FileChannel.open(dst, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        return new BufferedWriter(new OutputStreamWriter(Channels.newOutputStream(channel), StandardCharsets.US_ASCII), BUFFER_SIZE);
+    }
+
+    private void writePDBGroup(Writer out, char chainId, Group group) throws IOException {
+        var residueNumber = group.getResidueNumber();
+        var residueName = group.getPDBName();
+        var seqNum = residueNumber == null || residueNumber.getSeqNum() == null ? "" : String.valueOf(residueNumber.getSeqNum());
+        if (residueName.length() > 3)
+            throw new PdbFormatException("Residue name " + residueName + " does not fit the PDB format");
+        if (seqNum.length() > 4)
+            throw new PdbFormatException("Residue number " + seqNum + " does not fit the PDB format");
+        for (Atom atom : group.getAtoms()) {
+            line.setLength(0);
+            line.append(group.getType() == GroupType.HETATM ? "HETATM" : "ATOM  ");
+            // serials wrap instead of breaking the fixed columns
+            padLeft(line, Integer.toString(atom.getPDBserial() % 100000), 5);
+            line.append(' ');
+            appendPDBAtomName(atom);
+            line.append(altLoc(atom));
+            padLeft(line, residueName, 3);
+            line.append(' ').append(chainId);
+            padLeft(line, seqNum, 4);
+            line.append(insCode(residueNumber, ' '));
+            line.append("   ");
+            appendFixed(line, atom.getX(), 3, 8);
+            appendFixed(line, atom.getY(), 3, 8);
+            appendFixed(line, atom.getZ(), 3, 8);
+            appendFixed(line, atom.getOccupancy(), 2, 6);
+            appendFixed(line, atom.getTempFactor(), 2, 6);
+            line.append("          ");
+            padLeft(line, element(atom), 2);
+            short charge = atom.getCharge();
+            if (charge != 0)
+                line.append(Math.abs(charge)).append(charge > 0 ? '+' : '-');
+            newLine(out);
+        }
+        if (group.hasAltLoc())
+            for (Group alt : group.getAltLocs())
+                writePDBGroup(out, chainId, alt);
+    }
+
+    private void writeMMCIFGroup(Writer out, Chain chain, Group group) throws IOException {
+        var chainName = chainName(chain);
+        var residueNumber = group.getResidueNumber();
+        var entity = chain.getEntityInfo();
+        for (Atom atom : group.getAtoms()) {
+            line.setLength(0);
+            line.append(group.getType() == GroupType.HETATM ? "HETATM" : "ATOM").append(' ');
+            line.append(atom.getPDBserial()).append(' ');
+            appendCifValue(element(atom));
+            appendCifValue(atom.getName());
+            appendCifValue(String.valueOf(altLoc(atom)));
+            appendCifValue(group.getPDBName());
+            appendCifValue(chain.getId());
+            appendCifValue(entity == null ? "1" : String.valueOf(entity.getMolId()));
+            int seqIndex = entity == null || group.getType() == GroupType.HETATM ? -1 : entity.getAlignedResIndex(group, chain);
+            appendCifValue(seqIndex > 0 ? String.valueOf(seqIndex) : ".");
+            appendCifValue(String.valueOf(insCode(residueNumber, ' ')));
+            appendFixed(line, atom.getX(), 3, 0);
+            line.append(' ');
+            appendFixed(line, atom.getY(), 3, 0);
+            line.append(' ');
+            appendFixed(line, atom.getZ(), 3, 0);
+            line.append(' ');
+            appendFixed(line, atom.getOccupancy(), 2, 0);
+            line.append(' ');
+            appendFixed(line, atom.getTempFactor(), 2, 0);
+            line.append(' ');
+            line.append(atom.getCharge()).append(' ');
+            appendCifValue(residueNumber == null ? "?" : String.valueOf(residueNumber.getSeqNum()));
+            appendCifValue(group.getPDBName());
+            appendCifValue(chainName);
+            appendCifValue(atom.getName());
+            line.append('1');
+            newLine(out);
+        }
+        if (group.hasAltLoc())
+            for (Group alt : group.getAltLocs())
+                writeMMCIFGroup(out, chain, alt);
+    }
+
+    private void newLine(Writer out) throws IOException {
+        line.append('\n');
+        if (chars.length < line.length())
+            chars = new char[line.length() * 2];
+        line.getChars(0, line.length(), chars, 0);
+        out.write(chars, 0, line.length());
+    }
+
+    /**
+     * Atom names start in column 14 unless they fill all four columns
+     * or carry a two-letter element (e.g. MG starts in column 13).
+     */
+    private void appendPDBAtomName(Atom atom) {
+        var name = atom.getName();
+        var element = element(atom);
+        boolean fullWidth = name.length() >= 4 || (element.length() == 2 && name.startsWith(element));
+        if (!fullWidth) line.append(' ');
+        line.append(name);
+        for (int i = name.length() + (fullWidth ? 0 : 1); i < 4; i++)
+            line.append(' ');
+    }
+
+    /**
+     * Appends a fixed-point number with 2 or 3 decimals, right-aligned to the width, without going
+     * through the default locale or a formatter.
+     */
+    static void appendFixed(StringBuilder line, double value, int decimals, int width) {
+        long scale = decimals == 3 ? 1000 : 100;
+        long scaled = Math.round(Math.abs(value) * scale);
+        boolean negative = value < 0 && scaled != 0;
+        long integer = scaled / scale;
+        long fraction = scaled % scale;
+        int length = Long.toString(integer).length() + 1 + decimals + (negative ? 1 : 0);
+        for (int i = length; i < width; i++)
+            line.append(' ');
+        if (negative) line.append('-');
+        line.append(integer).append('.');
+        for (long s = scale / 10; s > 1 && fraction < s; s /= 10)
+            line.append('0');
+        line.append(fraction);
+    }
+
+    static void padLeft(StringBuilder line, String value, int width) {
+        for (int i = value.length(); i < width; i++)
+            line.append(' ');
+        line.append(value);
+    }
+
+    /**
+     * Appends a CIF token followed by a space, quoting it when needed (e.g. O5' becomes "O5'").
+     */
+    private void appendCifValue(String value) {
+        if (value == null || value.isBlank()) {
+            line.append(". ");
+            return;
+        }
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ' ' || c == '\'' || c == '"' || (i == 0 && (c == '_' || c == '#' || c == '$' || c == ';' || c == '[' || c == ']'));
+        }
+        if (!quote) line.append(value);
+        else if (value.indexOf('"') < 0) line.append('"').append(value).append('"');
+        else line.append('\'').append(value).append('\'');
+        line.append(' ');
+    }
+
+    private static char altLoc(Atom atom) {
+        var altLoc = atom.getAltLoc();
+        return altLoc == null || altLoc == 0 ? ' ' : altLoc;
+    }
+
+    private static char insCode(ResidueNumber residueNumber, char none) {
+        if (residueNumber == null || residueNumber.getInsCode() == null) return none;
+        return residueNumber.getInsCode();
+    }
+
+    private static String element(Atom atom) {
+        var element = atom.getElement();
+        return element == null ? "" : element.toString().toUpperCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,31 @@
+package it.unicam.cs.bdslab.tarnas.controller;
+
+import it.unicam.cs.bdslab.tarnas.view.utils.TOOL;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Backend that runs the per-file tool commands built by {@link DockerController#runJob(ToolJob)}.
+ * Commands are {@code bash} invocations whose paths are expressed with {@link #toToolPath(Path)}.
+ */
+public interface ToolExecutor {
+
+    /**
+     * Runs a command where the tool is installed and waits for it.
+     *
+     * @return the exit code of the command
+     */
+    int execute(TOOL tool, String... cmd) throws IOException, InterruptedException;
+
+    /**
+     * Path under which the tool sees a host file of the shared folder.
+     */
+    String toToolPath(Path hostPath);
+
+    /**
+     * Identifies the installed version of the tool in the result cache keys,
+     * or null if it cannot be identified (results are then not cached).
+     */
+    String fingerprint(TOOL tool);
+}
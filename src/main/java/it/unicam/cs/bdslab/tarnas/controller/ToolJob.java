@@ -0,0 +1,28 @@
+package it.unicam.cs.bdslab.tarnas.controller;
+
+import it.unicam.cs.bdslab.tarnas.view.utils.TOOL;
+
+import java.nio.file.Path;
+
+/**
+ * A single tool invocation on a single preprocessed chain file.
+ *
+ * @param tool  the annotation tool to run
+ * @param input host path of the preprocessed file (inside the shared folder)
+ */
+public record ToolJob(TOOL tool, Path input) {
+
+    /**
+     * File name of the input without its extension, e.g. 4PLX_A for 4PLX_A.pdb.
+     */
+    public String stem() {
+        var name = input.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return dot > 0 ? name.substring(0, dot) : name;
+    }
+
+    @Override
+    public String toString() {
+        return tool.getName() + ":" + input.getFileName();
+    }
+}
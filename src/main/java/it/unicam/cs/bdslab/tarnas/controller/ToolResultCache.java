@@ -0,0 +1,175 @@
+package it.unicam.cs.bdslab.tarnas.controller;
+
+import it.unicam.cs.bdslab.tarnas.view.utils.TOOL;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+/**
+ * Persistent, content-addressed cache of tool outputs.
+ * <p>
+ * An entry is keyed by the SHA-256 of the preprocessed chain file, its name (tools write it into
+ * their output names), the tool and the digest of the image the tool runs in, and stores the output
+ * files of that job. Entries are published with an atomic rename, so several TARNAS instances can
+ * share the same cache directory: readers never see half-written entries, and an entry evicted
+ * while being restored just results in a miss. Eviction is least-recently-used by size and is
+ * guarded by a lock file, so only one instance evicts at a time.
+ */
+public class ToolResultCache {
+
+    public static final Logger logger = Logger.getLogger("it.unicam.cs.bdslab.tarnas.controller.ToolResultCache");
+
+    public static final Path DEFAULT_ROOT = Paths.get(System.getProperty("user.home"), ".tarnas", "cache");
+    public static final long DEFAULT_MAX_BYTES = 10L * 1024 * 1024 * 1024;
+
+    private final Path root;
+    private final Path tmp;
+    private final long maxBytes;
+
+    public ToolResultCache(Path root, long maxBytes) {
+        this.root = root;
+        this.tmp = root.resolve("tmp");
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Cache configured by the tarnas.cache.dir and tarnas.cache.maxMB system properties,
+     * or null if tarnas.cache is set to false.
+     */
+    public static ToolResultCache fromSystemProperties() {
+        if (!Boolean.parseBoolean(System.getProperty("tarnas.cache", "true")))
+            return null;
+        var dir = System.getProperty("tarnas.cache.dir");
+        long maxMB = Long.getLong("tarnas.cache.maxMB", DEFAULT_MAX_BYTES / (1024 * 1024));
+        return new ToolResultCache(dir != null ? Paths.get(dir) : DEFAULT_ROOT, maxMB * 1024 * 1024);
+    }
+
+    public Path getRoot() {
+        return this.root;
+    }
+
+    /**
+     * Key of the job running the tool on the input, whose content has the given SHA-256.
+     */
+    public String key(String contentHash, Path input, TOOL tool, String imageDigest) {
+        var key = contentHash + "\n" + input.getFileName() + "\n" + tool.getName() + "\n" + imageDigest;
+        return Sha256.of(key);
+    }
+
+    /**
+     * Copies the outputs of a cached entry into the output folder.
+     *
+     * @return the restored files, or null on a miss
+     */
+    public List<Path> restore(String key, Path outputFolder) {
+        var entry = entryPath(key);
+        if (!Files.isDirectory(entry)) return null;
+        try {
+            var restored = new ArrayList<Path>();
+            try (DirectoryStream<Path> ds = Files.newDirectoryStream(entry)) {
+                for (Path p : ds)
+                    restored.add(Files.copy(p, outputFolder.resolve(p.getFileName()), StandardCopyOption.REPLACE_EXISTING));
+            }
+            // the entry modification time is its last access, used by the LRU eviction
+            Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+            return restored;
+        } catch (IOException e) {
+            // evicted in the meantime by another instance
+            logger.info("Cache entry " + key + " not restorable: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Stores a copy of the outputs of a successful job.
+     */
+    public void store(String key, List<Path> outputs) throws IOException {
+        var entry = entryPath(key);
+        if (Files.isDirectory(entry)) return;
+        Files.createDirectories(tmp);
+        var staging = Files.createTempDirectory(tmp, key.substring(0, 8));
+        try {
+            for (Path p : outputs)
+                Files.copy(p, staging.resolve(p.getFileName()), StandardCopyOption.REPLACE_EXISTING);
+            Files.createDirectories(entry.getParent());
+            Files.move(staging, entry, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            deleteRecursively(staging);
+            // otherwise stored concurrently by another job or instance
+            if (!Files.isDirectory(entry)) throw e;
+        }
+    }
+
+    /**
+     * Removes the least recently used entries until the cache fits its maximum size.
+     * Skipped if another TARNAS instance is already evicting.
+     */
+    public synchronized void evict() throws IOException {
+        if (!Files.isDirectory(root)) return;
+        try (FileChannel channel = FileChannel.open(root.resolve(".evict.lock"), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+             FileLock lock = channel.tryLock()) {
+            if (lock == null) {
+                logger.info("Cache eviction already running in another instance");
+                return;
+            }
+            record Entry(Path path, long size, long lastUsed) {
+            }
+            var entries = new ArrayList<Entry>();
+            long total = 0;
+            try (Stream<Path> shards = Files.list(root)) {
+                for (Path shard : shards.filter(p -> Files.isDirectory(p) && !p.equals(tmp)).toList()) {
+                    try (Stream<Path> keys = Files.list(shard)) {
+                        for (Path entry : keys.toList()) {
+                            long size = size(entry);
+                            total += size;
+                            entries.add(new Entry(entry, size, Files.getLastModifiedTime(entry).toMillis()));
+                        }
+                    }
+                }
+            }
+            if (total <= maxBytes) return;
+
+            entries.sort(Comparator.comparingLong(Entry::lastUsed));
+            int evicted = 0;
+            for (var entry : entries) {
+                if (total <= maxBytes) break;
+                try {
+                    // rename first, so that nobody restores a half-deleted entry
+                    Files.createDirectories(tmp);
+                    var trash = tmp.resolve("evicted-" + UUID.randomUUID());
+                    Files.move(entry.path(), trash, StandardCopyOption.ATOMIC_MOVE);
+                    deleteRecursively(trash);
+                    total -= entry.size();
+                    evicted++;
+                } catch (IOException e) {
+                    logger.info("Could not evict " + entry.path() + ": " + e.getMessage());
+                }
+            }
+            logger.info("Evicted " + evicted + " cache entries, cache size now " + total + " bytes");
+        }
+    }
+
+    private Path entryPath(String key) {
+        return root.resolve(key.substring(0, 2)).resolve(key);
+    }
+
+    private static long size(Path dir) throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            return files.filter(Files::isRegularFile).mapToLong(p -> p.toFile().length()).sum();
+        }
+    }
+
+    private static void deleteRecursively(Path dir) throws IOException {
+        if (!Files.exists(dir)) return;
+        try (Stream<Path> paths = Files.walk(dir)) {
+            for (Path p : paths.sorted(Comparator.reverseOrder()).toList())
+                Files.deleteIfExists(p);
+        }
+    }
+}
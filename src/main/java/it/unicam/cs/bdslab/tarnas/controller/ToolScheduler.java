@@ -0,0 +1,213 @@
+package it.unicam.cs.bdslab.tarnas.controller;
+
+import it.unicam.cs.bdslab.tarnas.view.utils.TOOL;
+
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * Runs tools once per preprocessed file instead of once per folder.
+ * A run is a graph of (tool x file) jobs: every tool gets its own worker pool, bounded by
+ * its degree of parallelism (by default, the number of available processors), and all the
+ * pools run at the same time, so tools living in different containers never wait for each other.
+ * Batches run in the background and are controlled through a {@link JobHandle}.
+ */
+public class ToolScheduler {
+
+    public static final Logger logger = Logger.getLogger("it.unicam.cs.bdslab.tarnas.controller.ToolScheduler");
+
+    /**
+     * Executes one job; any exception marks the job as failed.
+     */
+    @FunctionalInterface
+    public interface JobRunner {
+        void run(ToolJob job) throws Exception;
+    }
+
+    /**
+     * Notified from the worker threads every time a job finishes, successfully or not.
+     */
+    @FunctionalInterface
+    public interface JobListener {
+        void jobFinished(ToolJob job, RunReport report);
+    }
+
+    private final Map<TOOL, Integer> parallelism = new EnumMap<>(TOOL.class);
+    private final int defaultParallelism;
+
+    public ToolScheduler() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public ToolScheduler(int defaultParallelism) {
+        if (defaultParallelism < 1)
+            throw new IllegalArgumentException("Parallelism must be at least 1, got " + defaultParallelism);
+        this.defaultParallelism = defaultParallelism;
+    }
+
+    public synchronized void setParallelism(TOOL tool, int jobs) {
+        if (jobs < 1)
+            throw new IllegalArgumentException("Parallelism must be at least 1, got " + jobs);
+        this.parallelism.put(tool, jobs);
+    }
+
+    public synchronized int getParallelism(TOOL tool) {
+        return this.parallelism.getOrDefault(tool, this.defaultParallelism);
+    }
+
+    /**
+     * Starts every job in the background, keeping at most {@link #getParallelism(TOOL)} jobs of
+     * each tool in flight, and returns immediately.
+     */
+    public JobHandle submit(List<ToolJob> jobs, JobRunner runner, JobListener listener) {
+        var report = new RunReport(jobs);
+        var handle = new JobHandle(report);
+        if (jobs.isEmpty()) {
+            logger.info("No input files to process");
+            return handle;
+        }
+
+        var jobsByTool = new EnumMap<TOOL, List<ToolJob>>(TOOL.class);
+        for (var job : jobs)
+            jobsByTool.computeIfAbsent(job.tool(), t -> new ArrayList<>()).add(job);
+
+        for (var entry : jobsByTool.entrySet()) {
+            var tool = entry.getKey();
+            int workers = Math.min(getParallelism(tool), entry.getValue().size());
+            logger.info("Running " + tool.getName() + " on " + entry.getValue().size() + " files with " + workers + " parallel jobs");
+            var pool = Executors.newFixedThreadPool(workers, threadFactory(tool));
+            handle.addPool(pool);
+            for (var job : entry.getValue())
+                pool.execute(() -> execute(job, runner, report, listener));
+            // no more jobs: the pool terminates as soon as its queue is drained
+            pool.shutdown();
+        }
+        return handle;
+    }
+
+    /**
+     * Opens a batch whose jobs are added while it runs, e.g. as soon as their input is ready.
+     * Each tool keeps at most {@link #getParallelism(TOOL)} jobs in flight and queues at most
+     * capacity more: adding a job blocks while the queue of its tool is full.
+     */
+    public JobStream open(Collection<TOOL> tools, int capacity, JobRunner runner, JobListener listener) {
+        var report = new RunReport(List.of());
+        var handle = new JobHandle(report);
+        var pools = new EnumMap<TOOL, ExecutorService>(TOOL.class);
+        var permits = new EnumMap<TOOL, Semaphore>(TOOL.class);
+        for (TOOL tool : tools) {
+            int workers = getParallelism(tool);
+            logger.info("Streaming " + tool.getName() + " jobs to " + workers + " parallel jobs");
+            var pool = Executors.newFixedThreadPool(workers, threadFactory(tool));
+            handle.addPool(pool);
+            pools.put(tool, pool);
+            permits.put(tool, new Semaphore(workers + Math.max(0, capacity)));
+        }
+        return new JobStream(handle, pools, permits, runner, listener);
+    }
+
+    /**
+     * Batch open to new jobs until {@link #close()}; {@link JobHandle#await()} returns once it is
+     * closed and every job has finished.
+     */
+    public static final class JobStream implements AutoCloseable {
+        private final JobHandle handle;
+        private final Map<TOOL, ExecutorService> pools;
+        private final Map<TOOL, Semaphore> permits;
+        private final JobRunner runner;
+        private final JobListener listener;
+        private volatile boolean closed;
+
+        private JobStream(JobHandle handle, Map<TOOL, ExecutorService> pools, Map<TOOL, Semaphore> permits,
+                          JobRunner runner, JobListener listener) {
+            this.handle = handle;
+            this.pools = pools;
+            this.permits = permits;
+            this.runner = runner;
+            this.listener = listener;
+        }
+
+        public JobHandle getHandle() {
+            return this.handle;
+        }
+
+        /**
+         * Schedules the job, waiting while its tool already has a full queue.
+         *
+         * @throws InterruptedException if the batch was cancelled, so that the producer stops too
+         */
+        public void add(ToolJob job) throws InterruptedException {
+            var pool = pools.get(job.tool());
+            if (pool == null)
+                throw new IllegalArgumentException(job.tool().getName() + " is not a tool of this batch");
+            if (handle.isCancelled())
+                throw new InterruptedException("Batch cancelled, dropping " + job);
+            var permit = permits.get(job.tool());
+            permit.acquire();
+            var report = handle.getReport();
+            try {
+                // counted once scheduled; the job cannot report its outcome before it is counted
+                synchronized (report) {
+                    pool.execute(() -> {
+                        try {
+                            execute(job, runner, report, listener);
+                        } finally {
+                            permit.release();
+                        }
+                    });
+                    report.addJob(job);
+                }
+            } catch (RejectedExecutionException e) {
+                permit.release();
+                throw new InterruptedException("Batch cancelled, dropping " + job);
+            }
+        }
+
+        public boolean isClosed() {
+            return this.closed;
+        }
+
+        /**
+         * No more jobs: the pools terminate once their queues are drained.
+         */
+        @Override
+        public void close() {
+            this.closed = true;
+            pools.values().forEach(ExecutorService::shutdown);
+        }
+    }
+
+    private static void execute(ToolJob job, JobRunner runner, RunReport report, JobListener listener) {
+        try {
+            runner.run(job);
+            report.recordSuccess(job);
+        } catch (InterruptedException e) {
+            // cancelled: the job is reported as not processed
+            Thread.currentThread().interrupt();
+            return;
+        } catch (Exception e) {
+            report.recordFailure(job);
+            logger.severe("Job " + job + " failed: " + e.getMessage());
+        }
+        try {
+            listener.jobFinished(job, report);
+        } catch (RuntimeException e) {
+            logger.severe("Job listener failed: " + e);
+        }
+    }
+
+    private static ThreadFactory threadFactory(TOOL tool) {
+        var counter = new AtomicInteger();
+        return r -> {
+            var t = new Thread(r, "tarnas-" + tool.getName().toLowerCase(Locale.ROOT) + "-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+}
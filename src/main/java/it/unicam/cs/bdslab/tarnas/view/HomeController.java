@@ -1,11 +1,13 @@
 package it.unicam.cs.bdslab.tarnas.view;
 
+import it.unicam.cs.bdslab.tarnas.controller.ContainerStartup;
 import it.unicam.cs.bdslab.tarnas.controller.DockerController;
 import it.unicam.cs.bdslab.tarnas.controller.IOController;
+import it.unicam.cs.bdslab.tarnas.controller.JobHandle;
+import it.unicam.cs.bdslab.tarnas.controller.RunReport;
 import it.unicam.cs.bdslab.tarnas.view.utils.TOOL;
-import javafx.animation.Animation;
-import javafx.animation.KeyFrame;
-import javafx.animation.Timeline;
+import javafx.animation.PauseTransition;
+import javafx.application.Platform;
 import javafx.beans.property.BooleanProperty;
 import javafx.beans.property.SimpleBooleanProperty;
 import javafx.concurrent.Task;
@@ -24,25 +26,23 @@ import javafx.stage.Stage;
 
 import java.awt.*;
 import java.io.File;
-import java.io.IOException;
 import java.net.URI;
 import java.nio.file.Path;
 import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.logging.Logger;
+import java.util.stream.Collectors;
 
-import javafx.beans.binding.Bindings;
-import javafx.beans.property.DoubleProperty;
-import javafx.beans.property.SimpleDoubleProperty;
 import javafx.scene.control.Alert;
 import javafx.scene.control.Label;
 import javafx.scene.control.ProgressBar;
 import javafx.scene.layout.VBox;
 import javafx.util.Duration;
 
-import static it.unicam.cs.bdslab.tarnas.view.utils.TOOL.*;
-
 public class HomeController {
     public static final Logger logger = Logger.getLogger("it.unicam.cs.bdslab.tarnas.view.HomeController");
 
@@ -82,13 +82,22 @@ public class HomeController {
     @FXML
     public MenuButton menuBtnTools;
 
-    private TOOL selectedTool;
+    private final Set<TOOL> selectedTools = EnumSet.noneOf(TOOL.class);
+
+    private volatile JobHandle runningJob;
+
+    private ContainerStartup containerStartup;
 
     @FXML
     public void initialize() {
         logger.info("Initializing...");
         this.ioController = IOController.getInstance();
         this.dockerController = DockerController.getInstance();
+        // containers are started on demand, by the first tool that needs them
+        this.containerStartup = new ContainerStartup(this.dockerController,
+                new ContainerStartup.ContainerSpec(new File(dockerfileAllToolsPath), dockerAllToolsImage, dockerAllToolsImageTag, dockerAllToolsContainer),
+                new ContainerStartup.ContainerSpec(new File(dockerfileX3DNAPath), dockerX3DNAImage, dockerX3DNAImageTag, dockerX3DNAContainer));
+        this.dockerController.setContainerStartup(this.containerStartup);
 
         this.initSelectEventOnButtonItems(Arrays.stream(TOOL.values()).toList());
         logger.info("Initialization done");
@@ -110,6 +119,8 @@ public class HomeController {
             try {
                 var sharedDirectory = selectedDirectory.toPath();
                 this.ioController.loadDirectory(sharedDirectory);
+                // tools chosen before loading the folder restrict the preprocessed formats
+                this.dockerController.setPlannedTools(this.selectedTools);
                 this.initDockerContainers(sharedDirectory);
                 logger.info("Folder added successfully");
             } catch (Exception e) {
@@ -120,22 +131,36 @@ public class HomeController {
     }
 
     private void initDockerContainers(Path sharedFolder) {
-        // Dialog with a Close button (we'll enable it at 100%)
+        // Dialog with a Close button (we'll enable it when done)
         Alert loadingAlert = new Alert(Alert.AlertType.INFORMATION);
         loadingAlert.setTitle("Docker");
         loadingAlert.setHeaderText(null);
         loadingAlert.getDialogPane().getButtonTypes().setAll(ButtonType.CLOSE);
         Button closeBtn = (Button) loadingAlert.getDialogPane().lookupButton(ButtonType.CLOSE);
-        closeBtn.setDisable(true); // locked until 100%
+        closeBtn.setDisable(true); // locked until done
 
-        Label title = new Label("Building Docker images…");
-        ProgressBar bar = new ProgressBar(0);
-        bar.setPrefWidth(380);
-        Label percent = new Label("0%");
-        VBox box = new VBox(10, title, bar, percent);
+        Label title = new Label("Preprocessing the CSV…");
+        VBox box = new VBox(10, title);
         loadingAlert.getDialogPane().setContent(box);
         loadingAlert.getDialogPane().setPrefWidth(460);
 
+        // one bar per step (preprocessing, and each container started meanwhile), with its real progress
+        Map<String, ProgressBar> bars = new HashMap<>();
+        Map<String, Label> messages = new HashMap<>();
+        ContainerStartup.Listener showProgress = (step, progress, message) -> Platform.runLater(() -> {
+            if (!bars.containsKey(step)) {
+                ProgressBar bar = new ProgressBar(0);
+                bar.setPrefWidth(380);
+                Label label = new Label();
+                bars.put(step, bar);
+                messages.put(step, label);
+                box.getChildren().addAll(label, bar);
+                loadingAlert.getDialogPane().getScene().getWindow().sizeToScene();
+            }
+            bars.get(step).setProgress(progress);
+            messages.get(step).setText(step + ": " + message + " (" + Math.round(progress * 100) + "%)");
+        });
+
         // prevent closing before done
         final BooleanProperty done = new SimpleBooleanProperty(false);
         loadingAlert.setOnCloseRequest(ev -> {
@@ -144,116 +169,41 @@ public class HomeController {
 
         loadingAlert.show();
 
-        // progress driver with a gentle ticker
-        DoubleProperty driver = new SimpleDoubleProperty(0.0);
-        bar.progressProperty().bind(driver);
-        percent.textProperty().bind(Bindings.createStringBinding(
-                () -> Math.min(100, (int) Math.round(driver.get() * 100)) + "%",
-                driver));
-
-        Timeline ticker = new Timeline(
-                new KeyFrame(Duration.millis(120), e -> {
-                    double target = (double) box.getProperties().getOrDefault("targetProgress", 0.0);
-                    double cur = driver.get();
-                    // ease toward the target
-                    double next = cur + Math.min(0.02, Math.max(0.005, (target - cur) * 0.20));
-                    driver.set(Math.min(next, target));
-                })
-        );
-        ticker.setCycleCount(Animation.INDEFINITE);
-        ticker.play();
-
-        Runnable to50 = () -> box.getProperties().put("targetProgress", 0.50);
-        Runnable to95 = () -> box.getProperties().put("targetProgress", 0.95);
-        Runnable to100 = () -> box.getProperties().put("targetProgress", 1.00);
-
-        // --- TASKS ---
-        Task<Integer> taskBuild = new Task<>() {
-            @Override
-            protected Integer call() throws Exception {
-                return dockerController.buildDockerContainerBy(
-                        new File(dockerfileAllToolsPath),
-                        dockerAllToolsImage, dockerAllToolsImageTag,
-                        dockerAllToolsContainer, sharedFolder
-                );
-            }
-        };
+        this.containerStartup.setListener(showProgress);
+        var tools = EnumSet.copyOf(this.selectedTools);
 
-        Task<Integer> taskBuildx = new Task<>() {
+        Task<Boolean> taskPreprocess = new Task<>() {
             @Override
-            protected Integer call() throws Exception {
-                return dockerController.buildxDockerContainerBy(
-                        new File(dockerfileX3DNAPath),
-                        dockerX3DNAImage, dockerX3DNAImageTag,
-                        dockerX3DNAContainer
-                );
+            protected Boolean call() throws Exception {
+                // waits for the containers still starting on the previous folder, if any
+                containerStartup.setSharedFolder(sharedFolder);
+                // the containers of the tools already chosen warm up while preprocessing
+                containerStartup.prestart(tools);
+                return dockerController.preprocessCsv((progress, message) ->
+                        showProgress.progress(ContainerStartup.PREPROCESSING, progress, message));
             }
         };
 
-        // sequencing + progress
-        taskBuild.setOnRunning(e -> {
-            title.setText("Building Docker images… (step 1/2)");
-            to50.run();
-        });
-
-        taskBuild.setOnSucceeded(e -> {
-            Integer r1 = taskBuild.getValue();
-            if (r1 != null && r1 == 1) {
-                title.setText("Building Docker images… (step 2/2)");
-                to95.run();
-                new Thread(taskBuildx, "docker-buildx").start();
-            } else {
-                ticker.stop();
-                title.setText("Build step 1 failed. Check logs.");
-                closeBtn.setDisable(false);
-            }
-        });
-
-        taskBuild.setOnFailed(e -> {
-            ticker.stop();
-            title.setText("Build step 1 failed. Check logs.");
+        taskPreprocess.setOnSucceeded(e -> {
+            this.containerStartup.setListener(null);
+            done.set(true);
             closeBtn.setDisable(false);
+            title.setText(taskPreprocess.getValue() ? "Preprocessing done." : "No CSV file to preprocess.");
+            // auto-close after a moment
+            PauseTransition close = new PauseTransition(Duration.millis(1500));
+            close.setOnFinished(ae -> loadingAlert.close());
+            close.play();
         });
 
-        taskBuildx.setOnSucceeded(e -> {
-            Integer r2 = taskBuildx.getValue();
-            Integer r1 = taskBuild.getValue();
-            if (r1 != null && r1 == 1 && r2 != null && r2 == 1) {
-                // both succeeded → animate to 100, enable closing, auto-close after a moment
-                to100.run();
-                Timeline finish = new Timeline(
-                        new KeyFrame(Duration.millis(2550), ae -> {
-                            driver.set(1.0);
-                            done.set(true);
-                            closeBtn.setDisable(false);
-                            title.setText("Docker images ready.");
-                        }),
-                        new KeyFrame(Duration.millis(5100), ae -> {
-                            ticker.stop();
-                            loadingAlert.close();
-                        })
-                );
-                finish.play();
-            } else {
-                ticker.stop();
-                title.setText("Build step 2 failed or returned 0. Check logs.");
-                closeBtn.setDisable(false);
-            }
-        });
-
-        taskBuildx.setOnRunning(e -> {
-            // ensure the second phase visibly advances beyond 50%
-            to95.run();
-        });
-
-        taskBuildx.setOnFailed(e -> {
-            ticker.stop();
-            title.setText("Build step 2 failed. Check logs.");
+        taskPreprocess.setOnFailed(e -> {
+            this.containerStartup.setListener(null);
+            done.set(true);
             closeBtn.setDisable(false);
+            title.setText("Preprocessing failed: " + taskPreprocess.getException().getMessage() + ". Check logs.");
         });
 
         // kick off
-        new Thread(taskBuild, "docker-build").start();
+        new Thread(taskPreprocess, "preprocessing").start();
     }
 
 
@@ -264,76 +214,108 @@ public class HomeController {
     }
 
     @FXML
-    public void handleRun() throws InterruptedException, IOException {
+    public void handleRun() {
         logger.info("RUN button clicked");
 
-        Map<TOOL, Runnable> toolActions = Map.of(
-                RNAPOLIS_ANNOTATOR, () -> {
-                    try {
-                        this.dockerController.rnapolisAnnotator();
-                    } catch (InterruptedException e) {
-                        throw new RuntimeException(e);
-                    }
-                },
-                RNAVIEW, () -> {
-                    try {
-                        this.dockerController.rnaView();
-                    } catch (InterruptedException e) {
-                        throw new RuntimeException(e);
-                    }
-                },
-                BARNABA, () -> {
-                    try {
-                        this.dockerController.baRNAba();
-                    } catch (InterruptedException e) {
-                        throw new RuntimeException(e);
-                    }
-                },
-                BPNET, () -> {
-                    try {
-                        this.dockerController.bpnet();
-                    } catch (InterruptedException e) {
-                        throw new RuntimeException(e);
-                    }
-                },
-                FR3D, () -> {
-                    try {
-                        this.dockerController.fr3d();
-                    } catch (InterruptedException e) {
-                        throw new RuntimeException(e);
-                    }
-                },
-                X3DNA, () -> {
-                    try {
-                        this.dockerController.x3dnaBy(dockerX3DNAContainer);
-                    } catch (InterruptedException | IOException e) {
-                        throw new RuntimeException(e);
-                    }
-                },
-                MC_ANNOTATE, () -> {
-                    try {
-                        this.dockerController.mcAnnotate();
-                    } catch (InterruptedException e) {
-                        throw new RuntimeException(e);
-                    }
-                }
-        );
+        if (this.selectedTools.isEmpty()) {
+            showAlert(Alert.AlertType.ERROR, "Tool Error", "", "Select at least one tool.");
+            logger.warning("No tool selected");
+            return;
+        }
+        if (this.runningJob != null && !this.runningJob.isDone()) {
+            showAlert(Alert.AlertType.WARNING, "Tools Run", "", "A run is already in progress.");
+            return;
+        }
+        var tools = EnumSet.copyOf(this.selectedTools);
+        // set by the task once the jobs are submitted
+        this.runningJob = null;
+
+        // Dialog with a Cancel button, kept open until the jobs have really stopped
+        Alert progressAlert = new Alert(Alert.AlertType.INFORMATION);
+        progressAlert.initOwner(getPrimaryStage());
+        progressAlert.setTitle("Tools Run");
+        progressAlert.setHeaderText(null);
+        progressAlert.getDialogPane().getButtonTypes().setAll(ButtonType.CANCEL);
+
+        Label title = new Label("Running " + tools.stream().map(TOOL::getName).collect(Collectors.joining(", ")) + "…");
+        ProgressBar bar = new ProgressBar(0);
+        bar.setPrefWidth(380);
+        Label count = new Label("Preparing jobs…");
+        progressAlert.getDialogPane().setContent(new VBox(10, title, bar, count));
+        progressAlert.getDialogPane().setPrefWidth(460);
 
-        Runnable action = toolActions.get(this.selectedTool);
+        // Task coalesces progress and message updates into one UI refresh per pulse,
+        // so per-file completions reach the UI thread in batches
+        Task<RunReport> taskRun = new Task<>() {
+            @Override
+            protected RunReport call() throws Exception {
+                // shown until the first file completes
+                containerStartup.setListener((step, progress, message) -> updateMessage(step + ": " + message));
+                try {
+                    containerStartup.prestart(tools);
+                    // closed before the jobs were submitted
+                    if (isCancelled()) return null;
+                    var handle = dockerController.submitTools(tools, (job, report) -> {
+                        int completed = report.getSucceeded() + report.getFailed();
+                        updateProgress(completed, report.getTotal());
+                        updateMessage(completed + " / " + report.getTotal() + " files"
+                                + (report.getFailed() > 0 ? " (" + report.getFailed() + " failed)" : ""));
+                    });
+                    runningJob = handle;
+                    // closed while they were being submitted
+                    if (isCancelled()) handle.cancel();
+                    updateProgress(0, handle.getTotal());
+                    updateMessage("0 / " + handle.getTotal() + " files");
+                    return handle.await();
+                } finally {
+                    containerStartup.setListener(null);
+                }
+            }
+        };
+        bar.progressProperty().bind(taskRun.progressProperty());
+        count.textProperty().bind(taskRun.messageProperty());
+
+        progressAlert.setOnCloseRequest(ev -> {
+            if (taskRun.isDone()) return;
+            ev.consume();
+            title.setText("Cancelling…");
+            // until the jobs are submitted, the task itself is cancelled
+            if (this.runningJob != null) this.runningJob.cancel();
+            else taskRun.cancel();
+        });
 
-        if (action != null) {
-            action.run();
+        taskRun.setOnSucceeded(e -> {
+            var report = taskRun.getValue();
+            progressAlert.close();
             showAlert(
-                    Alert.AlertType.INFORMATION,
-                    this.selectedTool.getName() + " Tool",
-                    "",
-                    "Output saved in " + this.ioController.getSharedDirectory()
+                    report.isSuccessful() ? Alert.AlertType.INFORMATION : Alert.AlertType.WARNING,
+                    "Tools Run",
+                    report.isCancelled() ? "Run cancelled"
+                            : report.isSuccessful() ? "All tools completed"
+                            : report.getFailed() + " of " + report.getTotal() + " jobs failed",
+                    report.summary() + "\n\nOutput saved in " + this.ioController.getSharedDirectory()
             );
-            logger.info(this.selectedTool.getName().toUpperCase() + " TOOL EXECUTED");
-        } else {
-            showAlert(Alert.AlertType.ERROR, "Tool Error", "", "No action defined for selected tool.");
-            logger.warning("No action defined for tool: " + this.selectedTool);
-        }
+            logger.info(tools + " TOOLS EXECUTED");
+        });
+
+        taskRun.setOnCancelled(e -> {
+            var handle = this.runningJob;
+            if (handle != null) handle.cancel();
+            progressAlert.close();
+            showAlert(Alert.AlertType.INFORMATION, "Tools Run", "Run cancelled", "The run was cancelled while starting.");
+            logger.info("Run cancelled before the jobs started");
+        });
+
+        taskRun.setOnFailed(e -> {
+            progressAlert.close();
+            showAlert(Alert.AlertType.ERROR, "Tool Error", "", String.valueOf(taskRun.getException().getMessage()));
+            logger.severe("Run failed: " + taskRun.getException());
+        });
+
+        progressAlert.show();
+        var thread = new Thread(taskRun, "tools-run");
+        thread.setDaemon(true);
+        thread.start();
     }
 
 
@@ -535,13 +517,20 @@ public class HomeController {
     private void initSelectEventOnButtonItems(List<TOOL> availableTranslations) {
         this.menuBtnTools.getItems().clear();
         availableTranslations.forEach(a -> {
-            var item = new MenuItem(a.getName());
+            var item = new CheckMenuItem(a.getName());
             item.setUserData(a);
             this.menuBtnTools.getItems().add(item);
             item.setOnAction(e -> {
-                this.selectedTool = (TOOL) ((MenuItem) e.getSource()).getUserData();
-                this.menuBtnTools.setText((((MenuItem) e.getSource()).getText())); // set String to display in MenuItem
-                this.menuBtnTools.setUserData(this.selectedTool);
+                var tool = (TOOL) item.getUserData();
+                if (item.isSelected())
+                    this.selectedTools.add(tool);
+                else
+                    this.selectedTools.remove(tool);
+                // set String to display in MenuButton
+                this.menuBtnTools.setText(this.selectedTools.isEmpty()
+                        ? "Choose a Tool"
+                        : this.selectedTools.stream().map(TOOL::getName).collect(Collectors.joining(", ")));
+                this.menuBtnTools.setUserData(this.selectedTools);
             });
         });
     }
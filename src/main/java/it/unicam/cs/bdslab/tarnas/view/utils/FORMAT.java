@@ -0,0 +1,27 @@
+package it.unicam.cs.bdslab.tarnas.view.utils;
+
+
+public enum FORMAT {
+    PDB("pdb"),
+    CIF("cif");
+
+    private final String extension;
+
+    FORMAT(String extension) {
+        this.extension = extension;
+    }
+
+    public String getExtension() {
+        return extension;
+    }
+
+    /**
+     * Format of a file from its extension (case insensitive), or null if it is neither.
+     */
+    public static FORMAT fromFileName(String fileName) {
+        var lower = fileName.toLowerCase(java.util.Locale.ROOT);
+        for (FORMAT format : values())
+            if (lower.endsWith("." + format.extension)) return format;
+        return null;
+    }
+}
@@ -0,0 +1,23 @@
+package it.unicam.cs.bdslab.tarnas.view.utils;
+
+
+/**
+ * Kind of a residue or of a chain. HYBRID only applies to chains with both RNA and DNA residues.
+ */
+public enum POLYMER {
+    RNA,
+    DNA,
+    HYBRID,
+    PROTEIN,
+    OTHER;
+
+    /**
+     * Kind of a chain from the number of its residues of each kind: nucleic acid if nucleotides are
+     * at least as many as amino acids, hybrid if it has both RNA and DNA nucleotides.
+     */
+    public static POLYMER ofChain(int rna, int dna, int protein) {
+        if (rna + dna == 0 || protein > rna + dna) return protein > 0 ? PROTEIN : OTHER;
+        if (rna > 0 && dna > 0) return HYBRID;
+        return rna > 0 ? RNA : DNA;
+    }
+}
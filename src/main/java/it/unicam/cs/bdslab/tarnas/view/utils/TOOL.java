@@ -2,21 +2,49 @@ package it.unicam.cs.bdslab.tarnas.view.utils;
 
 
 public enum TOOL {
-    RNAVIEW("RNAVIEW"),
-    RNAPOLIS_ANNOTATOR("RNAPOLIS_ANNOTATOR"),
-    BARNABA("BARNABA"),
-    BPNET("BPNET"),
-    FR3D("FR3D"),
-    X3DNA("X3DNA"),
-    MC_ANNOTATE("MC_ANNOTATE");
+    RNAVIEW("RNAVIEW", "rnaview-output", FORMAT.PDB, false),
+    RNAPOLIS_ANNOTATOR("RNAPOLIS_ANNOTATOR", "rnapolis-output", FORMAT.PDB, true),
+    BARNABA("BARNABA", "barnaba-output", FORMAT.PDB, false),
+    BPNET("BPNET", "bpnet-output", FORMAT.PDB, false),
+    FR3D("FR3D", "fr3d-output", FORMAT.CIF, true),
+    X3DNA("X3DNA", "x3dna-output", FORMAT.PDB, true),
+    MC_ANNOTATE("MC_ANNOTATE", "mc-annotate-output", FORMAT.PDB, false);
 
     private final String name;
+    private final String outputFolder;
+    private final FORMAT inputFormat;
+    private final boolean readsCif;
 
-    TOOL(String name) {
+    TOOL(String name, String outputFolder, FORMAT inputFormat, boolean readsCif) {
         this.name = name;
+        this.outputFolder = outputFolder;
+        this.inputFormat = inputFormat;
+        this.readsCif = readsCif;
     }
 
     public String getName() {
         return name;
     }
+
+    /**
+     * Name of the folder, relative to the shared folder, where the tool results are collected.
+     */
+    public String getOutputFolder() {
+        return outputFolder;
+    }
+
+    /**
+     * Format of the preprocessed chain files the tool reads.
+     */
+    public FORMAT getInputFormat() {
+        return inputFormat;
+    }
+
+    /**
+     * Whether the tool also reads mmCIF chain files (RNApolis annotator and DSSR detect the format),
+     * so that chains only available as mmCIF need no conversion.
+     */
+    public boolean readsCif() {
+        return readsCif;
+    }
 }
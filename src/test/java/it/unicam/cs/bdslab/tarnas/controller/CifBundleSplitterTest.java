@@ -0,0 +1,114 @@
+package it.unicam.cs.bdslab.tarnas.controller;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CifBundleSplitterTest {
+
+    @TempDir
+    Path folder;
+
+    private record Row(String resName, String chain, int resSeq) {
+    }
+
+    private Path cif(List<Row> rows) throws IOException {
+        return cif("", rows);
+    }
+
+    private Path cif(String header, List<Row> rows) throws IOException {
+        var sb = new StringBuilder("data_1ABC\n#\n").append(header).append("loop_\n");
+        for (var column : List.of("group_PDB", "id", "type_symbol", "label_atom_id", "label_comp_id", "auth_asym_id",
+                "auth_seq_id", "Cartn_x", "Cartn_y", "Cartn_z", "pdbx_PDB_model_num"))
+            sb.append("_atom_site.").append(column).append('\n');
+        int id = 0;
+        for (var row : rows)
+            sb.append(String.format(Locale.ROOT, "ATOM %d P P %s %s %d 1.0 2.0 3.0 1%n", ++id, row.resName(), row.chain(), row.resSeq()));
+        sb.append("#\n");
+        var file = folder.resolve("1abc.cif");
+        Files.writeString(file, sb);
+        return file;
+    }
+
+    private static List<String> records(Path pdb) throws IOException {
+        return Files.readAllLines(pdb).stream().filter(l -> l.startsWith("ATOM") || l.startsWith("TER")).toList();
+    }
+
+    @Test
+    void writesInterruptedChainsAsOneSegment() throws IOException {
+        // the ligands and waters of A and B come after both polymers
+        var file = cif(List.of(new Row("G", "A", 1), new Row("C", "A", 2), new Row("U", "BB", 1),
+                new Row("MG", "A", 101), new Row("HOH", "BB", 201), new Row("HOH", "A", 202)));
+        var chains = new CifBundleSplitter().split(file, folder, "1abc");
+
+        assertEquals(List.of("A", "BB"), chains.stream().map(CifBundleSplitter.BundleChain::originalChainId).toList());
+        var bundle = chains.get(0).bundle();
+        var lines = records(bundle);
+        var chainIds = new ArrayList<String>();
+        for (var line : lines) chainIds.add(line.startsWith("TER") ? "TER" : line.substring(21, 22));
+        assertEquals(List.of("A", "A", "A", "A", "TER", "B", "B", "TER"), chainIds);
+        // serials in file order, with no repeats
+        assertEquals(List.of(1, 2, 3, 4, 5, 6), lines.stream().filter(l -> l.startsWith("ATOM"))
+                .map(l -> Integer.parseInt(l.substring(6, 11).trim())).toList());
+        try (var files = Files.list(folder)) {
+            assertTrue(files.noneMatch(p -> p.toString().endsWith(".tmp")));
+        }
+    }
+
+    @Test
+    void writesFixedColumnsWithUnixLineEnds() throws IOException {
+        var chains = new CifBundleSplitter().split(cif(List.of(new Row("G", "A", 12))), folder, "1abc");
+
+        var content = Files.readString(chains.get(0).bundle());
+        assertFalse(content.contains("\r"));
+        assertEquals("ATOM      1  P     G A  12       1.000   2.000   3.000  1.00  0.00           P  ",
+                content.lines().findFirst().orElseThrow());
+    }
+
+    @Test
+    void findsAtomSiteAfterTextFields() throws IOException {
+        var header = """
+                _struct.title
+                ;Looks like a header
+                _atom_site.id
+                ;
+                loop_
+                _pdbx_remark.id
+                _pdbx_remark.text
+                1
+                ;loop_
+                _atom_site.group_PDB
+                ;
+                #
+                """;
+        var chains = new CifBundleSplitter().split(cif(header, List.of(new Row("G", "A", 1), new Row("C", "A", 2))), folder, "1abc");
+
+        var atoms = records(chains.get(0).bundle()).stream().filter(l -> l.startsWith("ATOM")).toList();
+        assertEquals(2, atoms.size());
+        assertEquals("C", atoms.get(1).substring(17, 20).trim());
+    }
+
+    @Test
+    void rejectsEntriesThatDoNotFitThePdbFormat() throws IOException {
+        var splitter = new CifBundleSplitter();
+        var longName = cif(List.of(new Row("G", "A", 1), new Row("A1AAA", "A", 2)));
+        assertThrows(StructureWriter.PdbFormatException.class, () -> splitter.split(longName, folder, "1abc"));
+
+        var rows = new ArrayList<Row>();
+        for (int i = 0; i <= CifBundleSplitter.MAX_ATOMS; i++) rows.add(new Row("U", "A", 1 + i / 30));
+        var largeChain = cif(rows);
+        assertThrows(StructureWriter.PdbFormatException.class, () -> splitter.split(largeChain, folder, "1abc"));
+
+        try (var files = Files.list(folder)) {
+            assertTrue(files.allMatch(p -> p.getFileName().toString().equals("1abc.cif")));
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package it.unicam.cs.bdslab.tarnas.controller;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CifChainSplitterTest {
+
+    private static final String ATOM_SITE = """
+            loop_
+            _atom_site.group_PDB
+            _atom_site.id
+            _atom_site.type_symbol
+            _atom_site.label_atom_id
+            _atom_site.label_comp_id
+            _atom_site.label_asym_id
+            _atom_site.label_entity_id
+            _atom_site.label_seq_id
+            _atom_site.Cartn_x
+            _atom_site.Cartn_y
+            _atom_site.Cartn_z
+            _atom_site.occupancy
+            _atom_site.B_iso_or_equiv
+            _atom_site.auth_seq_id
+            _atom_site.auth_asym_id
+            _atom_site.pdbx_PDB_model_num
+            """;
+
+    @TempDir
+    Path folder;
+
+    private static void writeAtoms(BufferedWriter out, String chain, String comp, int atoms) throws IOException {
+        writeAtoms(out, chain, "1", comp, atoms);
+    }
+
+    private static void writeAtoms(BufferedWriter out, String chain, String entity, String comp, int atoms) throws IOException {
+        for (int i = 1; i <= atoms; i++)
+            out.write(String.format(Locale.ROOT, "ATOM %d P P %s %s %s %d %.3f %.3f %.3f 1.00 20.00 %d %s 1%n",
+                    i, comp, chain, entity, 1 + i / 20, i % 1000 * 0.1, -i % 700 * 0.1, i % 300 * 0.1, 1 + i / 20, chain));
+    }
+
+    @Test
+    void skipsTextFieldsOfUnusedCategories() throws IOException {
+        var cif = folder.resolve("1abc.cif");
+        try (var out = Files.newBufferedWriter(cif, StandardCharsets.UTF_8)) {
+            out.write("""
+                    data_1ABC
+                    _struct.title
+                    ;Not a category:
+                    loop_
+                    _atom_site.id
+                    ;
+                    _pdbx_description.text
+                    ;
+                    _atom_site.group_PDB
+                    ;
+                    #
+                    """);
+            out.write(ATOM_SITE);
+            writeAtoms(out, "A", "G", 40);
+            writeAtoms(out, "B", "HOH", 3);
+            out.write("#\n");
+        }
+
+        var written = new CifChainSplitter(true).split(cif, "*", folder, "1abc");
+        assertEquals(List.of("A"), written);
+        var chain = Files.readAllLines(folder.resolve("1abc_A.cif"));
+        assertEquals(40, chain.stream().filter(l -> l.startsWith("ATOM")).count());
+    }
+
+    @Test
+    void neverOpensChainsOfARejectedEntity() throws IOException {
+        var cif = folder.resolve("1abc.cif");
+        try (var out = Files.newBufferedWriter(cif, StandardCharsets.UTF_8)) {
+            out.write("""
+                    data_1ABC
+                    loop_
+                    _entity_poly.entity_id
+                    _entity_poly.type
+                    1 polyribonucleotide
+                    2 'polypeptide(L)'
+                    #
+                    """);
+            out.write(ATOM_SITE);
+            writeAtoms(out, "A", "1", "G", 40);
+            writeAtoms(out, "B", "2", "ALA", 40);
+            out.write("#\n");
+        }
+        // a protein chain file could not even be opened
+        Files.createDirectory(folder.resolve("1abc_B.cif.tmp"));
+
+        var written = new CifChainSplitter(true).split(cif, "*", folder, "1abc");
+        assertEquals(List.of("A"), written);
+        assertFalse(Files.exists(folder.resolve("1abc_B.cif")));
+    }
+
+    // run by splitsLargeEntriesInASmallHeap in a JVM of its own
+    public static void main(String[] args) throws IOException {
+        var written = new CifChainSplitter(true).split(Paths.get(args[0]), "*", Paths.get(args[1]), "1abc");
+        System.exit(written.equals(List.of("A")) ? 0 : 2);
+    }
+
+    @Test
+    void splitsLargeEntriesInASmallHeap() throws IOException, InterruptedException {
+        var cif = folder.resolve("1abc.cif");
+        try (var out = Files.newBufferedWriter(cif, StandardCharsets.UTF_8)) {
+            out.write("data_1ABC\n#\n");
+            out.write(ATOM_SITE);
+            writeAtoms(out, "A", "A", 160_000);
+            out.write("#\n");
+        }
+        assertTrue(Files.size(cif) > 10L * 1024 * 1024);
+
+        var java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        // the main and test classes only, whatever launched the tests
+        var classPath = codeSource(CifChainSplitter.class) + File.pathSeparator + codeSource(CifChainSplitterTest.class);
+        var process = new ProcessBuilder(java, "-Xmx8m", "-cp", classPath,
+                CifChainSplitterTest.class.getName(), cif.toString(), folder.toString())
+                .redirectErrorStream(true)
+                .redirectOutput(folder.resolve("split.log").toFile())
+                .start();
+        assertTrue(process.waitFor(1, TimeUnit.MINUTES), "the split did not finish");
+        assertEquals(0, process.exitValue(), () -> {
+            try {
+                return Files.readString(folder.resolve("split.log"));
+            } catch (IOException e) {
+                return e.toString();
+            }
+        });
+        assertEquals(Files.size(cif) - "data_1ABC\n#\n".length(),
+                Files.size(folder.resolve("1abc_A.cif")) - headerSize(folder.resolve("1abc_A.cif")));
+    }
+
+    private static String codeSource(Class<?> type) {
+        try {
+            return Paths.get(type.getProtectionDomain().getCodeSource().getLocation().toURI()).toString();
+        } catch (URISyntaxException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static long headerSize(Path chainFile) throws IOException {
+        long size = 0;
+        try (var in = Files.newBufferedReader(chainFile, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = in.readLine()) != null && !line.startsWith("loop_"))
+                size += line.length() + 1;
+        }
+        return size;
+    }
+}
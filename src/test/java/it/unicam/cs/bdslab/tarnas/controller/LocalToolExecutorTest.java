@@ -0,0 +1,93 @@
+package it.unicam.cs.bdslab.tarnas.controller;
+
+import it.unicam.cs.bdslab.tarnas.view.utils.TOOL;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs the MC-Annotate job script through a {@link LocalToolExecutor}, with a stub executable
+ * installed under the tools home in place of MC-Annotate.
+ */
+class LocalToolExecutorTest {
+
+    // fails on inputs containing FAIL, hangs on inputs containing HANG, echoes the input otherwise
+    private static final String STUB = """
+            #!/bin/sh
+            if grep -q FAIL "$1"; then echo "stub failure" >&2; exit 3; fi
+            if grep -q HANG "$1"; then sleep 60; fi
+            cat "$1"
+            """;
+
+    @TempDir
+    Path sharedFolder;
+    @TempDir
+    Path toolsHome;
+
+    private final DockerController dockerController = DockerController.getInstance();
+    private Path outputFolder;
+
+    @BeforeEach
+    void installStub() throws IOException {
+        var stub = toolsHome.resolve("MC-Annotate").resolve("MC-Annotate");
+        Files.createDirectories(stub.getParent());
+        Files.writeString(stub, STUB);
+        Files.setPosixFilePermissions(stub, PosixFilePermissions.fromString("rwxr-xr-x"));
+
+        Files.createDirectories(sharedFolder.resolve("preprocessed"));
+        outputFolder = Files.createDirectories(sharedFolder.resolve(TOOL.MC_ANNOTATE.getOutputFolder()));
+        dockerController.setSharedFolder(sharedFolder);
+    }
+
+    @AfterEach
+    void restoreExecutor() {
+        dockerController.setToolExecutor(null);
+    }
+
+    private ToolJob job(String content) throws IOException {
+        var input = sharedFolder.resolve("preprocessed").resolve("1ABC_A.pdb");
+        Files.writeString(input, content);
+        return new ToolJob(TOOL.MC_ANNOTATE, input);
+    }
+
+    @Test
+    void copiesTheOutputBack() throws Exception {
+        dockerController.setToolExecutor(new LocalToolExecutor(toolsHome));
+        var outputs = dockerController.runJob(job("ATOM 1\n"));
+
+        assertEquals(List.of(outputFolder.resolve("1ABC_A.txt")), outputs);
+        assertEquals("ATOM 1\n", Files.readString(outputs.get(0)));
+        // the scratch directory of the job is removed
+        assertFalse(Files.exists(sharedFolder.resolve("scratch").resolve("mc_annotate").resolve("1ABC_A")));
+    }
+
+    @Test
+    void reportsAFailure() throws Exception {
+        dockerController.setToolExecutor(new LocalToolExecutor(toolsHome));
+        var job = job("FAIL\n");
+
+        var e = assertThrows(IOException.class, () -> dockerController.runJob(job));
+        assertTrue(e.getMessage().contains("exited with code 3"), e.getMessage());
+    }
+
+    @Test
+    void reportsATimeout() throws Exception {
+        dockerController.setToolExecutor(new LocalToolExecutor(toolsHome, Duration.ofSeconds(1)));
+        var job = job("HANG\n");
+
+        long start = System.nanoTime();
+        var e = assertThrows(IOException.class, () -> dockerController.runJob(job));
+        assertTrue(e.getMessage().contains("timed out"), e.getMessage());
+        assertTrue(Duration.ofNanos(System.nanoTime() - start).toSeconds() < 30, "the stub was not killed");
+    }
+}
@@ -0,0 +1,105 @@
+package it.unicam.cs.bdslab.tarnas.controller;
+
+import it.unicam.cs.bdslab.tarnas.view.utils.POLYMER;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ResidueClassifierTest {
+
+    @TempDir
+    Path folder;
+
+    private static POLYMER pdb(String name) {
+        return ResidueClassifier.pdbResidue(name.getBytes(StandardCharsets.US_ASCII), 0);
+    }
+
+    @Test
+    void looksUpPdbResidueNames() {
+        assertEquals(POLYMER.RNA, pdb("  U"));
+        assertEquals(POLYMER.RNA, pdb("U  "));
+        assertEquals(POLYMER.RNA, pdb("PSU"));
+        assertEquals(POLYMER.DNA, pdb(" DA"));
+        assertEquals(POLYMER.PROTEIN, pdb("SEC"));
+        assertEquals(POLYMER.OTHER, pdb("HOH"));
+        assertEquals(POLYMER.OTHER, pdb("   "));
+    }
+
+    @Test
+    void classifiesChains() {
+        assertEquals(POLYMER.RNA, POLYMER.ofChain(10, 0, 0));
+        assertEquals(POLYMER.HYBRID, POLYMER.ofChain(5, 5, 0));
+        assertEquals(POLYMER.DNA, POLYMER.ofChain(0, 10, 0));
+        // a protein with a few nucleotide-named ligands is still a protein
+        assertEquals(POLYMER.PROTEIN, POLYMER.ofChain(1, 0, 100));
+        assertEquals(POLYMER.OTHER, POLYMER.ofChain(0, 0, 0));
+    }
+
+    @Test
+    void cachesComponentsOfEveryKind() {
+        var classifier = new ResidueClassifier(EnumSet.of(POLYMER.RNA));
+        assertFalse(classifier.isKnown("HOH"));
+        classifier.define("HOH", "NON-POLYMER");
+        classifier.define("XYZ", null);
+        assertTrue(classifier.isKnown("HOH"));
+        assertTrue(classifier.isKnown("XYZ"));
+        assertEquals(POLYMER.OTHER, classifier.residue("HOH"));
+
+        // components known in advance keep their kind
+        classifier.define("U", "L-peptide linking");
+        assertEquals(POLYMER.RNA, classifier.residue("U"));
+    }
+
+    @Test
+    void entriesDoNotShareTheirComponents() {
+        var shared = new ResidueClassifier(EnumSet.of(POLYMER.RNA));
+        var entry = shared.forEntry();
+        entry.define("ZZZ", "RNA linking");
+        assertEquals(POLYMER.RNA, entry.residue("ZZZ"));
+        assertEquals(POLYMER.OTHER, shared.residue("ZZZ"));
+        assertEquals(POLYMER.OTHER, shared.forEntry().residue("ZZZ"));
+        assertEquals(shared.getAccepted(), entry.getAccepted());
+    }
+
+    @Test
+    void splittersClassifyAnEntryWhateverWasReadBefore() throws IOException {
+        // ZZZ is an RNA residue for the mmCIF entry declaring it only
+        var cif = Files.writeString(folder.resolve("1abc.cif"), """
+                data_1ABC
+                #
+                _chem_comp.id ZZZ
+                _chem_comp.type 'RNA linking'
+                #
+                loop_
+                _atom_site.group_PDB
+                _atom_site.id
+                _atom_site.label_comp_id
+                _atom_site.auth_seq_id
+                _atom_site.auth_asym_id
+                ATOM 1 ZZZ 1 A
+                ATOM 2 ZZZ 2 A
+                #
+                """);
+        var pdb = folder.resolve("2xyz.pdb");
+        Files.writeString(pdb, record("ZZZ", 'A', 1) + record("ZZZ", 'A', 2) + record("  U", 'B', 1) + "END\n");
+
+        var pdbSplitter = new PdbChainSplitter();
+        assertEquals(List.of("B"), pdbSplitter.split(pdb, "*", folder, "2xyz"));
+        assertEquals(List.of("A"), new CifChainSplitter(true).split(cif, "*", folder, "1abc"));
+        assertEquals(List.of("B"), pdbSplitter.split(pdb, "*", folder, "2xyz"));
+    }
+
+    private static String record(String residue, char chain, int seq) {
+        return String.format(Locale.ROOT, "ATOM  %5d  P   %3s %c%4d    %8.3f%8.3f%8.3f  1.00  0.00           P%n",
+                seq, residue, chain, seq, 1.0, 2.0, 3.0);
+    }
+}
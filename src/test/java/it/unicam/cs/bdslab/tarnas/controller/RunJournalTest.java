@@ -0,0 +1,51 @@
+package it.unicam.cs.bdslab.tarnas.controller;
+
+import it.unicam.cs.bdslab.tarnas.view.utils.TOOL;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RunJournalTest {
+
+    @TempDir
+    Path folder;
+
+    @Test
+    void doneOnlyWithTheSameInputAndImage() throws IOException {
+        var input = Files.writeString(folder.resolve("1abc_A.pdb"), "ATOM\n");
+        var output = Files.writeString(folder.resolve("1abc_A.out"), "");
+        var job = new ToolJob(TOOL.MC_ANNOTATE, input);
+        var checksum = Sha256.of(input);
+
+        var journal = RunJournal.open(folder.resolve(RunJournal.FILE_NAME));
+        journal.recordDone(job, checksum, "sha256:1", List.of(output));
+
+        // read back from disk
+        journal = RunJournal.open(folder.resolve(RunJournal.FILE_NAME));
+        assertTrue(journal.isDone(job, checksum, "sha256:1", folder));
+        assertFalse(journal.isDone(job, checksum, "sha256:2", folder), "the image was rebuilt");
+        assertFalse(journal.isDone(job, checksum, null, folder));
+        assertFalse(journal.isDone(job, Sha256.of("other"), "sha256:1", folder));
+        Files.delete(output);
+        assertFalse(journal.isDone(job, checksum, "sha256:1", folder));
+    }
+
+    @Test
+    void unknownFingerprintsMatchEachOther() throws IOException {
+        var input = Files.writeString(folder.resolve("1abc_A.pdb"), "ATOM\n");
+        var job = new ToolJob(TOOL.MC_ANNOTATE, input);
+        var journal = RunJournal.open(folder.resolve(RunJournal.FILE_NAME));
+
+        journal.recordFailure(job, Sha256.of(input), null, new IOException("exit 1"));
+        assertTrue(journal.hasFailed(job));
+        journal.recordDone(job, Sha256.of(input), null, List.of());
+        assertTrue(RunJournal.open(journal.getFile()).isDone(job, Sha256.of(input), null, folder));
+        assertFalse(RunJournal.open(journal.getFile()).hasFailed(job));
+    }
+}
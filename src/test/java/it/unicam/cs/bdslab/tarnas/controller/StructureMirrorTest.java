@@ -0,0 +1,96 @@
+package it.unicam.cs.bdslab.tarnas.controller;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StructureMirrorTest {
+
+    @TempDir
+    Path root;
+    @TempDir
+    Path work;
+
+    private Path entry(String name, int bytes) throws IOException {
+        // random content, so that the compressed size is close to the size
+        var content = new byte[bytes];
+        new Random(name.hashCode()).nextBytes(content);
+        return Files.write(work.resolve(name), content);
+    }
+
+    @Test
+    void restoresAHit() throws IOException {
+        var mirror = new StructureMirror(root, 1 << 20, false);
+        var file = entry("1abc.pdb", 1000);
+        mirror.store("1abc", file);
+
+        var output = Files.createDirectory(work.resolve("out"));
+        var restored = mirror.restore("1ABC", output);
+        assertEquals(output.resolve("1ABC.pdb"), restored);
+        assertArrayEquals(Files.readAllBytes(file), Files.readAllBytes(restored));
+        assertNull(mirror.restore("2XYZ", output));
+    }
+
+    @Test
+    void dropsACorruptEntry() throws IOException {
+        Files.writeString(root.resolve("1ABC.pdb.gz"), "not gzip");
+        var mirror = new StructureMirror(root, 1 << 20, false);
+        assertTrue(mirror.size("1ABC") > 0);
+
+        assertNull(mirror.restore("1ABC", work));
+        assertEquals(-1, mirror.size("1ABC"));
+        assertFalse(Files.readString(root.resolve("index.tsv")).contains("1ABC"));
+        assertFalse(Files.exists(work.resolve("1ABC.pdb")));
+    }
+
+    @Test
+    void evictsTheLeastRecentlyUsedEntries() throws Exception {
+        // room for two entries out of three
+        var mirror = new StructureMirror(root, 2500, false);
+        mirror.store("1AAA", entry("1aaa.pdb", 1000));
+        Thread.sleep(5);
+        mirror.store("2BBB", entry("2bbb.pdb", 1000));
+        Thread.sleep(5);
+        assertNotNull(mirror.restore("1AAA", work));
+        Thread.sleep(5);
+        mirror.store("3CCC", entry("3ccc.cif", 1000));
+
+        assertTrue(mirror.size("1AAA") > 0);
+        assertEquals(-1, mirror.size("2BBB"));
+        assertTrue(mirror.size("3CCC") > 0);
+        assertFalse(Files.exists(root.resolve("2BBB.pdb.gz")));
+    }
+
+    @Test
+    void failsAtOnceOnAnOfflineMiss() {
+        var bioJava = new BioJavaController();
+        bioJava.setStructureMirror(new StructureMirror(root, 1 << 20, true));
+
+        long start = System.nanoTime();
+        assertThrows(FileNotFoundException.class, () -> bioJava.downloadPDB("1ABC", work.toString()));
+        assertTrue(System.nanoTime() - start < 1_000_000_000L);
+    }
+
+    @Test
+    void rebuildsTheIndexFromTheDirectory() throws IOException {
+        var file = entry("1xyz.cif", 1000);
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(root.resolve("1xyz.cif.gz")))) {
+            Files.copy(file, out);
+        }
+        var mirror = new StructureMirror(root, 1 << 20, false);
+
+        assertEquals(Files.size(root.resolve("1xyz.cif.gz")), mirror.size("1XYZ"));
+        var restored = mirror.restore("1XYZ", Files.createDirectory(work.resolve("out")));
+        assertEquals("1XYZ.cif", restored.getFileName().toString());
+        assertArrayEquals(Files.readAllBytes(file), Files.readAllBytes(restored));
+    }
+}
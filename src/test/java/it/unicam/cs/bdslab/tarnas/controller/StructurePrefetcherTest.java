@@ -0,0 +1,182 @@
+package it.unicam.cs.bdslab.tarnas.controller;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs the {@link StructureDownloader} and the {@link StructurePrefetcher} against a local HTTP
+ * stand-in of files.rcsb.org/download.
+ */
+class StructurePrefetcherTest {
+
+    @TempDir
+    Path folder;
+
+    private HttpServer server;
+    private StructureDownloader downloader;
+    // files served, by name; missing files get a 404
+    private final Map<String, byte[]> files = new ConcurrentHashMap<>();
+    // number of 503 answers still to give, by name
+    private final Map<String, AtomicInteger> failures = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> requests = new ConcurrentHashMap<>();
+
+    @BeforeEach
+    void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/download/", this::serve);
+        server.start();
+        downloader = new StructureDownloader("http://127.0.0.1:" + server.getAddress().getPort() + "/download/", true);
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.stop(0);
+    }
+
+    private void serve(HttpExchange exchange) throws IOException {
+        var name = exchange.getRequestURI().getPath().substring("/download/".length());
+        requests.computeIfAbsent(name, k -> new AtomicInteger()).incrementAndGet();
+        var failing = failures.get(name);
+        var content = files.get(name);
+        int status = failing != null && failing.getAndDecrement() > 0 ? 503 : content != null ? 200 : 404;
+        exchange.sendResponseHeaders(status, status == 200 ? content.length : -1);
+        if (status == 200) {
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(content);
+            }
+        }
+        exchange.close();
+    }
+
+    private void serveGzipped(String name, String content) throws IOException {
+        var bytes = new ByteArrayOutputStream();
+        try (OutputStream out = new GZIPOutputStream(bytes)) {
+            out.write(content.getBytes(StandardCharsets.UTF_8));
+        }
+        files.put(name + ".gz", bytes.toByteArray());
+    }
+
+    private int requestsFor(String name) {
+        var count = requests.get(name);
+        return count == null ? 0 : count.get();
+    }
+
+    @Test
+    void fallsBackToCifOnAPdbNotFound() throws IOException {
+        serveGzipped("1ABC.cif", "data_1ABC\n");
+
+        var file = downloader.download("1abc", folder, null);
+        assertEquals(folder.resolve("1ABC.cif"), file);
+        assertEquals("data_1ABC\n", Files.readString(file));
+        assertEquals(1, requestsFor("1ABC.pdb.gz"));
+    }
+
+    @Test
+    void leavesNoFileForACorruptDownload() throws IOException {
+        serveGzipped("1ABC.pdb", "ATOM\n".repeat(10_000));
+        var gz = files.get("1ABC.pdb.gz");
+        // cut short, as by a dropped connection the server did not notice
+        files.put("1ABC.pdb.gz", Arrays.copyOf(gz, gz.length / 2));
+
+        assertThrows(IOException.class, () -> downloader.download("1abc", folder, null));
+        try (var left = Files.list(folder)) {
+            assertEquals(List.of(), left.toList());
+        }
+    }
+
+    @Test
+    void reportsAnEntryNotFoundWithoutRetrying() throws InterruptedException {
+        var prefetcher = new StructurePrefetcher(id -> downloader.download(id, folder, null), 1, 3, 10, 4);
+        try (var pipeline = prefetcher.start(List.of("9ZZZ"), id -> id, id -> true)) {
+            var ready = pipeline.take();
+            assertNull(ready.file());
+            assertInstanceOf(FileNotFoundException.class, ready.error());
+        }
+        assertEquals(1, requestsFor("9ZZZ.pdb.gz"));
+        assertEquals(1, requestsFor("9ZZZ.cif.gz"));
+    }
+
+    @Test
+    void retriesWithBackoffOnAServerError() throws Exception {
+        serveGzipped("2XYZ.pdb", "ATOM\n");
+        failures.put("2XYZ.pdb.gz", new AtomicInteger(2));
+        var prefetcher = new StructurePrefetcher(id -> downloader.download(id, folder, null), 1, 3, 100, 4);
+
+        long start = System.nanoTime();
+        try (var pipeline = prefetcher.start(List.of("2XYZ"), id -> id, id -> true)) {
+            var ready = pipeline.take();
+            assertNull(ready.error());
+            assertEquals(folder.resolve("2XYZ.pdb"), ready.file());
+            assertNull(pipeline.take());
+        }
+        // two failures, waiting 100 then 200 ms
+        assertEquals(3, requestsFor("2XYZ.pdb.gz"));
+        assertTrue((System.nanoTime() - start) / 1_000_000 >= 300);
+    }
+
+    @Test
+    void givesUpAfterTheRetries() throws Exception {
+        serveGzipped("3AAA.pdb", "ATOM\n");
+        failures.put("3AAA.pdb.gz", new AtomicInteger(10));
+        var prefetcher = new StructurePrefetcher(id -> downloader.download(id, folder, null), 1, 2, 10, 4);
+
+        try (var pipeline = prefetcher.start(List.of("3AAA"), id -> id, id -> true)) {
+            var ready = pipeline.take();
+            assertNull(ready.file());
+            assertTrue(ready.error().getMessage().contains("503"), ready.error().getMessage());
+        }
+        assertEquals(3, requestsFor("3AAA.pdb.gz"));
+    }
+
+    @Test
+    void boundedQueueHoldsBackTheDownloads() throws Exception {
+        var ids = new ArrayList<String>();
+        for (int i = 0; i < 10; i++) {
+            var id = i + "ABC";
+            ids.add(id);
+            serveGzipped(id + ".pdb", "ATOM " + i + "\n");
+        }
+        // 2 download threads, 2 ready items at most
+        var prefetcher = new StructurePrefetcher(id -> downloader.download(id, folder, null), 2, 0, 10, 2);
+
+        try (var pipeline = prefetcher.start(ids, id -> id, id -> true)) {
+            Thread.sleep(500);
+            // the queue is full and each download thread holds one more item
+            int fetched = 0;
+            for (var id : ids) fetched += requestsFor(id + ".pdb.gz");
+            assertEquals(4, fetched);
+
+            var taken = new ArrayList<String>();
+            StructurePrefetcher.Ready<String> ready;
+            while ((ready = pipeline.take()) != null) {
+                assertNull(ready.error());
+                taken.add(ready.item());
+            }
+            assertEquals(10, taken.size());
+            assertTrue(taken.containsAll(ids));
+        }
+    }
+}
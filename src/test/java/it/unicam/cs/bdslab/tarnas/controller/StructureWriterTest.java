@@ -0,0 +1,119 @@
+package it.unicam.cs.bdslab.tarnas.controller;
+
+import it.unicam.cs.bdslab.tarnas.view.utils.FORMAT;
+import org.biojava.nbio.structure.*;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StructureWriterTest {
+
+    @TempDir
+    Path folder;
+
+    private static Chain chain(String name, String residue, int... seqNums) {
+        var chain = new ChainImpl();
+        chain.setId(name);
+        chain.setName(name);
+        for (int seqNum : seqNums) {
+            var group = new NucleotideImpl();
+            group.setPDBName(residue);
+            group.setResidueNumber(new ResidueNumber(name, seqNum, null));
+            var atom = new AtomImpl();
+            atom.setName("P");
+            atom.setElement(Element.P);
+            atom.setPDBserial(seqNum);
+            atom.setCoords(new double[]{1.5, -2.25, 1000.125});
+            atom.setOccupancy(1);
+            group.addAtom(atom);
+            chain.addGroup(group);
+        }
+        return chain;
+    }
+
+    private static Structure structure(Chain... chains) {
+        var structure = new StructureImpl();
+        for (Chain chain : chains) structure.addChain(chain);
+        return structure;
+    }
+
+    private static List<String> atoms(Path pdb) throws IOException {
+        return Files.readAllLines(pdb).stream().filter(l -> l.startsWith("ATOM")).toList();
+    }
+
+    @Test
+    void writesTheFixedColumns() throws IOException {
+        var defaultLocale = Locale.getDefault();
+        Locale.setDefault(Locale.GERMANY);
+        try {
+            var pdb = folder.resolve("1abc_A.pdb");
+            new StructureWriter().writePDB(structure(chain("A", "U", 1)), pdb);
+
+            var atom = atoms(pdb).get(0);
+            assertEquals("U", atom.substring(17, 20).trim());
+            assertEquals(' ', atom.charAt(20));
+            assertEquals('A', atom.charAt(21));
+            assertEquals("1", atom.substring(22, 26).trim());
+            assertEquals("   1.500  -2.2501000.125", atom.substring(30, 54));
+        }
+        finally {
+            Locale.setDefault(defaultLocale);
+        }
+    }
+
+    @Test
+    void givesLongChainIdsDistinctSingleCharacterIds() throws IOException {
+        var pdb = folder.resolve("1abc.pdb");
+        new StructureWriter().writePDB(structure(chain("AAA", "U", 1), chain("BAA", "U", 1), chain("A", "G", 1)), pdb);
+
+        var chainIds = atoms(pdb).stream().map(l -> l.substring(20, 22)).toList();
+        assertEquals(List.of(" B", " C", " A"), chainIds);
+    }
+
+    @Test
+    void rejectsResiduesThatDoNotFit() {
+        var writer = new StructureWriter();
+        var pdb = folder.resolve("1abc.pdb");
+
+        assertThrows(StructureWriter.PdbFormatException.class, () -> writer.writePDB(structure(chain("A", "A1AAA", 1)), pdb));
+        assertThrows(StructureWriter.PdbFormatException.class, () -> writer.writePDB(structure(chain("A", "U", 10000)), pdb));
+        assertFalse(Files.exists(pdb));
+        assertFalse(Files.exists(folder.resolve("1abc.pdb.tmp")));
+    }
+
+    @Test
+    void keepsTheLastMmcifWhenAWriteFails() throws IOException {
+        var writer = new StructureWriter();
+        var cif = folder.resolve("1abc.cif");
+        writer.writeMMCIF(structure(chain("A", "G", 1)), cif);
+        var written = Files.readString(cif);
+
+        var broken = chain("B", "U", 1);
+        broken.addGroup(new NucleotideImpl() {
+            @Override
+            public List<Atom> getAtoms() {
+                throw new IllegalStateException("unreadable group");
+            }
+        });
+        assertThrows(IllegalStateException.class, () -> writer.writeMMCIF(structure(chain("A", "G", 1), broken), cif));
+        assertEquals(written, Files.readString(cif));
+        assertFalse(Files.exists(folder.resolve("1abc.cif.tmp")));
+    }
+
+    @Test
+    void savesAsMmcifWhatDoesNotFitThePdbFormat() throws IOException {
+        var dst = folder.resolve("1abc_A");
+        new BioJavaController().save(structure(chain("A", "A1AAA", 1)), dst, EnumSet.of(FORMAT.PDB));
+
+        assertFalse(Files.exists(folder.resolve("1abc_A.pdb")));
+        assertTrue(Files.readString(folder.resolve("1abc_A.cif")).contains("A1AAA"));
+    }
+}
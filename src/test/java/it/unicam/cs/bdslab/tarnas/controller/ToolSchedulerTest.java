@@ -0,0 +1,58 @@
+package it.unicam.cs.bdslab.tarnas.controller;
+
+import it.unicam.cs.bdslab.tarnas.view.utils.TOOL;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ToolSchedulerTest {
+
+    private static ToolJob job(int i) {
+        return new ToolJob(TOOL.MC_ANNOTATE, Paths.get("1abc_" + i + ".pdb"));
+    }
+
+    @Test
+    void streamStopsItsProducerOnceCancelled() throws InterruptedException {
+        var started = new CountDownLatch(1);
+        ToolScheduler.JobRunner blocking = job -> {
+            started.countDown();
+            Thread.sleep(60_000);
+        };
+        var stream = new ToolScheduler(1).open(List.of(TOOL.MC_ANNOTATE), 4, blocking, (job, report) -> {
+        });
+        var handle = stream.getHandle();
+        stream.add(job(1));
+        stream.add(job(2));
+        started.await();
+        assertEquals(2, handle.getTotal());
+
+        handle.cancel();
+        assertThrows(InterruptedException.class, () -> stream.add(job(3)));
+        stream.close();
+        handle.await();
+        // the rejected job is not part of the run
+        assertEquals(2, handle.getTotal());
+        assertTrue(handle.getReport().isCancelled());
+    }
+
+    @Test
+    void streamCountsEveryScheduledJob() throws InterruptedException {
+        var overtaken = new AtomicBoolean();
+        var stream = new ToolScheduler(2).open(List.of(TOOL.MC_ANNOTATE), 1, job -> {
+        }, (job, report) -> {
+            if (report.getSucceeded() > report.getTotal()) overtaken.set(true);
+        });
+        for (int i = 0; i < 100; i++)
+            stream.add(job(i));
+        stream.close();
+        var report = stream.getHandle().await();
+        assertEquals(100, report.getTotal());
+        assertEquals(100, report.getSucceeded());
+        assertFalse(overtaken.get(), "a job finished before it was counted");
+    }
+}